@@ -0,0 +1,30 @@
+package plc.interpreter;
+
+/**
+ * The lexical address of a variable reference inside a function body, as
+ * determined by the {@link Resolver}.
+ *
+ * The depth is the number of scopes between the reference and the scope that
+ * defines the variable, which is either the frame of the function or a scope
+ * created by a block, and the slot is the variable's index in that scope. If
+ * the slot is -1, the variable is free and the depth is that of the function's
+ * frame, so the lookup starts at the parent of the frame (skipping the scopes
+ * of the function body, which the resolver has determined do not define it).
+ */
+final class Address {
+
+    final Layout layout;
+    final int depth;
+    final int slot;
+
+    Address(Layout layout, int depth, int slot) {
+        this.layout = layout;
+        this.depth = depth;
+        this.slot = slot;
+    }
+
+    boolean isFree() {
+        return slot < 0;
+    }
+
+}
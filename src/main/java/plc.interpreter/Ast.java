@@ -14,18 +14,52 @@ import java.util.stream.Collectors;
  * what was selected.
  *
  * There is a fair bit of Java overhead in these classes for getters and
- * equals/toString, which are be needed for the interpreter, JUnit tests, and
- * debugging.
+ * equals/hashCode/toString, which are be needed for the interpreter, JUnit
+ * tests, and debugging. ASTs are never modified once created, so terms cache
+ * their hash code, and identical subtrees can be shared with {@link
+ * AstInterner}. The only exceptions are the annotations written by the {@link
+ * Resolver}, the cached {@link Closure} and the double value of a number
+ * literal, which don't affect equality.
  */
 public class Ast {
 
+    /**
+     * The closure this AST is compiled to by the {@link ClosureCompiler},
+     * created the first time it is evaluated.
+     */
+    Closure closure;
+
+    /**
+     * Whether this node was created by an {@link AstInterner}, and so may be
+     * shared by several positions in a program. The {@link Resolver} copies
+     * these nodes rather than annotating them.
+     */
+    boolean interned;
+
     public static final class Term extends Ast {
 
         private final String name;
+        private final Symbol symbol;
         private final List<Ast> args;
+        private int hash;
+
+        /**
+         * The address of the function being called, and the layout of the
+         * scopes created by this term if it is a block or the {@code (name
+         * params...)} of a function definition.
+         */
+        Address address;
+        Layout layout;
+
+        /**
+         * The inline cache of the function called by this term, created the
+         * first time it is evaluated.
+         */
+        InlineCache cache;
 
         public Term(String name, List<Ast> args) {
             this.name = name;
+            this.symbol = Symbol.of(name);
             this.args = args;
         }
 
@@ -33,13 +67,34 @@ public class Ast {
             return name;
         }
 
+        public Symbol getSymbol() {
+            return symbol;
+        }
+
         public List<Ast> getArgs() {
             return args;
         }
 
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Term && name.equals(((Term) obj).name) && args.equals(((Term) obj).args);
+            if (this == obj) {
+                return true;
+            } else if (!(obj instanceof Term)) {
+                return false;
+            }
+            Term other = (Term) obj;
+            if (hash != 0 && other.hash != 0 && hash != other.hash) {
+                return false;
+            }
+            return name.equals(other.name) && args.equals(other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            if (hash == 0) {
+                hash = 31 * name.hashCode() + args.hashCode();
+            }
+            return hash;
         }
 
         @Override
@@ -52,20 +107,32 @@ public class Ast {
     public static final class Identifier extends Ast {
 
         private final String name;
+        private final Symbol symbol;
+        Address address;
 
         public Identifier(String name) {
             this.name = name;
+            this.symbol = Symbol.of(name);
         }
 
         public String getName() {
             return name;
         }
 
+        public Symbol getSymbol() {
+            return symbol;
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Identifier && name.equals(((Identifier) obj).name);
         }
 
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
         @Override
         public String toString() {
             return name;
@@ -95,11 +162,30 @@ public class Ast {
             return value;
         }
 
+        /**
+         * The value rounded to the nearest double, which is what the literal
+         * evaluates to in {@link FastMath fast-math mode}. It is only created
+         * the first time it's needed, and then cached.
+         */
+        private Double approximation;
+
+        Double getApproximation() {
+            if (approximation == null) {
+                approximation = value.doubleValue();
+            }
+            return approximation;
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof NumberLiteral && value.equals(((NumberLiteral) obj).value);
         }
 
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
         @Override
         public String toString() {
             return value.toString();
@@ -124,6 +210,11 @@ public class Ast {
             return obj instanceof StringLiteral && value.equals(((StringLiteral) obj).value);
         }
 
+        @Override
+        public int hashCode() {
+            return value.hashCode();
+        }
+
         @Override
         public String toString() {
             return "\"" + value + "\"";
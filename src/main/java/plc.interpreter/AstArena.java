@@ -0,0 +1,333 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An AST stored in a flat, off-heap arena (a direct {@link ByteBuffer}) rather
+ * than as {@link Ast} objects, for programs too large to comfortably hold on
+ * the heap.
+ *
+ * Nodes are addressed by their int offset into the arena and are read through
+ * the accessors below, such as {@link #getKind(int)} and {@link #getArg(int,
+ * int)}, which don't allocate. Each node is a sequence of ints starting with
+ * it's {@link Kind}:
+ *
+ *  - {@link Kind#TERM}: the name's string index, the number of arguments, and
+ *    then the offset of each argument
+ *  - {@link Kind#IDENTIFIER} and {@link Kind#STRING}: the string index
+ *  - {@link Kind#NUMBER}: the scale followed by the unscaled value as a long,
+ *    or -1 followed by the string index of the number if it doesn't fit
+ *
+ * Children are written before their parents, so the root is the last node.
+ * Names and strings are deduplicated in a string table on the heap, as they
+ * are typically shared by many nodes.
+ *
+ * The {@link Interpreter} evaluates an arena through these accessors, and
+ * only turns the subtrees that need to be {@link Ast}s (such as the body of a
+ * function definition) back into them with {@link #materialize(int)}.
+ */
+public final class AstArena {
+
+    public enum Kind {
+        TERM,
+        IDENTIFIER,
+        NUMBER,
+        STRING
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    private ByteBuffer buffer;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> table = new HashMap<>();
+    private final List<Symbol> symbols = new ArrayList<>();
+    private int root;
+
+    private AstArena(int capacity) {
+        buffer = ByteBuffer.allocateDirect(Math.max(capacity, 64)).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Stores the given AST in a new arena.
+     */
+    public static AstArena of(Ast ast) {
+        AstArena arena = new AstArena(1024);
+        arena.root = arena.append(ast);
+        return arena;
+    }
+
+    /**
+     * Parses the input into a new arena with a {@code source} root term. Only
+     * one top-level form at a time is held as {@link Ast} objects.
+     */
+    public static AstArena parse(CharSequence input) {
+        AstArena arena = new AstArena(Math.max(input.length() * 4, 1024));
+        int[] forms = new int[16];
+        int count = 0;
+        Iterator<Ast> iterator = Parser.forms(input);
+        while (iterator.hasNext()) {
+            if (count == forms.length) {
+                forms = Arrays.copyOf(forms, count * 2);
+            }
+            forms[count++] = arena.append(iterator.next());
+        }
+        arena.root = arena.writeTerm("source", Arrays.copyOf(forms, count));
+        return arena;
+    }
+
+    /**
+     * Returns the offset of the root node.
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of bytes used in the arena.
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[buffer.getInt(node)];
+    }
+
+    /**
+     * Returns the name of a term or identifier.
+     */
+    public String getName(int node) {
+        require(node, Kind.TERM, Kind.IDENTIFIER);
+        return strings.get(buffer.getInt(node + 4));
+    }
+
+    /**
+     * Returns the symbol of the name of a term or identifier, which is created
+     * once for each string in the table.
+     */
+    Symbol getSymbol(int node) {
+        require(node, Kind.TERM, Kind.IDENTIFIER);
+        int index = buffer.getInt(node + 4);
+        while (symbols.size() <= index) {
+            symbols.add(null);
+        }
+        Symbol symbol = symbols.get(index);
+        if (symbol == null) {
+            symbol = Symbol.of(strings.get(index));
+            symbols.set(index, symbol);
+        }
+        return symbol;
+    }
+
+    public int getArgCount(int node) {
+        require(node, Kind.TERM, Kind.TERM);
+        return buffer.getInt(node + 8);
+    }
+
+    /**
+     * Returns the offset of the i-th argument of a term.
+     */
+    public int getArg(int node, int i) {
+        int count = getArgCount(node);
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Argument " + i + " out of bounds for " + count + " arguments.");
+        }
+        return buffer.getInt(node + 12 + 4 * i);
+    }
+
+    public BigDecimal getNumber(int node) {
+        require(node, Kind.NUMBER, Kind.NUMBER);
+        int scale = buffer.getInt(node + 4);
+        if (scale == -1) {
+            return new BigDecimal(strings.get(buffer.getInt(node + 8)));
+        }
+        return BigDecimal.valueOf(buffer.getLong(node + 8), scale);
+    }
+
+    public String getString(int node) {
+        require(node, Kind.STRING, Kind.STRING);
+        return strings.get(buffer.getInt(node + 4));
+    }
+
+    /**
+     * Creates the {@link Ast} for the subtree at the given offset. Terms are
+     * materialized with an explicit stack, so deep subtrees don't overflow the
+     * Java stack.
+     */
+    public Ast materialize(int node) {
+        if (getKind(node) != Kind.TERM) {
+            return materializeAtom(node);
+        }
+        ArrayDeque<MaterializeFrame> terms = new ArrayDeque<>();
+        terms.push(new MaterializeFrame(node, getArgCount(node)));
+        while (true) {
+            MaterializeFrame frame = terms.peek();
+            if (frame.args.size() < frame.count) {
+                int arg = getArg(frame.node, frame.args.size());
+                if (getKind(arg) == Kind.TERM) {
+                    terms.push(new MaterializeFrame(arg, getArgCount(arg)));
+                } else {
+                    frame.args.add(materializeAtom(arg));
+                }
+                continue;
+            }
+            terms.pop();
+            Ast ast = new Ast.Term(getName(frame.node), frame.args);
+            if (terms.isEmpty()) {
+                return ast;
+            }
+            terms.peek().args.add(ast);
+        }
+    }
+
+    private Ast materializeAtom(int node) {
+        switch (getKind(node)) {
+            case IDENTIFIER: return new Ast.Identifier(getName(node));
+            case NUMBER: return new Ast.NumberLiteral(getNumber(node));
+            case STRING: return new Ast.StringLiteral(getString(node));
+            default: throw new AssertionError(getKind(node));
+        }
+    }
+
+    /**
+     * Appends the given AST to the arena, returning the offset of it's root.
+     */
+    private int append(Ast ast) {
+        if (!(ast instanceof Ast.Term)) {
+            return appendAtom(ast);
+        }
+        ArrayDeque<AppendFrame> terms = new ArrayDeque<>();
+        terms.push(new AppendFrame((Ast.Term) ast));
+        while (true) {
+            AppendFrame frame = terms.peek();
+            if (frame.written < frame.offsets.length) {
+                Ast arg = frame.term.getArgs().get(frame.written);
+                if (arg instanceof Ast.Term) {
+                    terms.push(new AppendFrame((Ast.Term) arg));
+                } else {
+                    frame.offsets[frame.written++] = appendAtom(arg);
+                }
+                continue;
+            }
+            terms.pop();
+            int offset = writeTerm(frame.term.getName(), frame.offsets);
+            if (terms.isEmpty()) {
+                return offset;
+            }
+            AppendFrame parent = terms.peek();
+            parent.offsets[parent.written++] = offset;
+        }
+    }
+
+    private int appendAtom(Ast ast) {
+        int offset = reserve(16);
+        if (ast instanceof Ast.Identifier) {
+            buffer.putInt(Kind.IDENTIFIER.ordinal()).putInt(string(((Ast.Identifier) ast).getName()));
+        } else if (ast instanceof Ast.StringLiteral) {
+            buffer.putInt(Kind.STRING.ordinal()).putInt(string(((Ast.StringLiteral) ast).getValue()));
+        } else if (ast instanceof Ast.NumberLiteral) {
+            BigDecimal value = ((Ast.NumberLiteral) ast).getValue();
+            BigInteger unscaled = value.unscaledValue();
+            buffer.putInt(Kind.NUMBER.ordinal());
+            if (unscaled.bitLength() < 64 && value.scale() >= 0) {
+                buffer.putInt(value.scale()).putLong(unscaled.longValue());
+            } else {
+                buffer.putInt(-1).putInt(string(value.toString()));
+            }
+        } else {
+            throw new AssertionError(ast.getClass());
+        }
+        return offset;
+    }
+
+    private int writeTerm(String name, int[] args) {
+        int offset = reserve(12 + 4 * args.length);
+        buffer.putInt(Kind.TERM.ordinal()).putInt(string(name)).putInt(args.length);
+        for (int arg : args) {
+            buffer.putInt(arg);
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the index of the string in the table, adding it if needed.
+     */
+    private int string(String value) {
+        Integer index = table.get(value);
+        if (index == null) {
+            index = strings.size();
+            strings.add(value);
+            table.put(value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Ensures there are at least the given number of bytes remaining, growing
+     * the arena if needed, and returns the current position.
+     */
+    private int reserve(int bytes) {
+        if (buffer.remaining() < bytes) {
+            long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + bytes);
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IllegalStateException("The arena is limited to " + Integer.MAX_VALUE + " bytes.");
+            }
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.nativeOrder());
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        return buffer.position();
+    }
+
+    private void require(int node, Kind first, Kind second) {
+        Kind kind = getKind(node);
+        if (kind != first && kind != second) {
+            throw new IllegalArgumentException("Expected the node at " + node + " to be a " + first + (first != second ? " or " + second : "") + ", received " + kind + ".");
+        }
+    }
+
+    /**
+     * A term whose arguments are still being appended to the arena.
+     */
+    private static final class AppendFrame {
+
+        private final Ast.Term term;
+        private final int[] offsets;
+        private int written = 0;
+
+        private AppendFrame(Ast.Term term) {
+            this.term = term;
+            this.offsets = new int[term.getArgs().size()];
+        }
+
+    }
+
+    /**
+     * A term whose arguments are still being materialized.
+     */
+    private static final class MaterializeFrame {
+
+        private final int node;
+        private final int count;
+        private final List<Ast> args;
+
+        private MaterializeFrame(int node, int count) {
+            this.node = node;
+            this.count = count;
+            this.args = new ArrayList<>(count);
+        }
+
+    }
+
+}
@@ -0,0 +1,111 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates canonical AST nodes, so that structurally equal subtrees (such as
+ * repeated identifiers or a term like {@code (+ x 1)} appearing many times)
+ * are a single shared object.
+ *
+ * Since the arguments of a canonical term are themselves canonical, looking
+ * up a term only needs the cached hash codes and identity of it's arguments,
+ * and comparing two canonical nodes from the same interner is a reference
+ * comparison. This also makes canonical nodes cheap keys for caches.
+ *
+ * The interner holds on to every node it has created, so it should live only
+ * as long as the ASTs it is used for. It is safe to use from multiple threads.
+ */
+public final class AstInterner {
+
+    private final ConcurrentHashMap<Ast, Ast> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the number of distinct nodes created by this interner.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    public Ast.Term term(String name, List<Ast> args) {
+        List<Ast> canonical = new ArrayList<>(args.size());
+        for (Ast arg : args) {
+            canonical.add(intern(arg));
+        }
+        return (Ast.Term) canonical(new Ast.Term(name, Collections.unmodifiableList(canonical)));
+    }
+
+    public Ast.Identifier identifier(String name) {
+        return (Ast.Identifier) canonical(new Ast.Identifier(name));
+    }
+
+    public Ast.NumberLiteral number(BigDecimal value) {
+        return (Ast.NumberLiteral) canonical(new Ast.NumberLiteral(value));
+    }
+
+    public Ast.StringLiteral string(String value) {
+        return (Ast.StringLiteral) canonical(new Ast.StringLiteral(value));
+    }
+
+    /**
+     * Returns the canonical node equal to the given AST. Subtrees are interned
+     * bottom-up with an explicit stack, so deep ASTs don't overflow the Java
+     * stack.
+     */
+    public Ast intern(Ast ast) {
+        if (!(ast instanceof Ast.Term)) {
+            return canonical(ast);
+        }
+        ArrayDeque<TermFrame> terms = new ArrayDeque<>();
+        terms.push(new TermFrame((Ast.Term) ast));
+        while (true) {
+            TermFrame frame = terms.peek();
+            List<Ast> args = frame.term.getArgs();
+            if (frame.args.size() < args.size()) {
+                Ast arg = args.get(frame.args.size());
+                if (arg instanceof Ast.Term) {
+                    terms.push(new TermFrame((Ast.Term) arg));
+                } else {
+                    frame.args.add(canonical(arg));
+                }
+                continue;
+            }
+            terms.pop();
+            Ast term = canonical(new Ast.Term(frame.term.getName(), Collections.unmodifiableList(frame.args)));
+            if (terms.isEmpty()) {
+                return term;
+            }
+            terms.peek().args.add(term);
+        }
+    }
+
+    /**
+     * Returns the existing node equal to the given node, whose arguments (if
+     * any) must already be canonical, or adds it if there isn't one.
+     */
+    private Ast canonical(Ast node) {
+        node.interned = true;
+        Ast existing = nodes.putIfAbsent(node, node);
+        return existing != null ? existing : node;
+    }
+
+    /**
+     * A term whose arguments are still being interned.
+     */
+    private static final class TermFrame {
+
+        private final Ast.Term term;
+        private final List<Ast> args;
+
+        private TermFrame(Ast.Term term) {
+            this.term = term;
+            this.args = new ArrayList<>(term.getArgs().size());
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+package plc.interpreter;
+
+/**
+ * A function in the standard library, defined by {@link Interpreter}.
+ *
+ * Builtins are either strict, in which case every argument is evaluated (in
+ * order) and the function only sees the values, or special forms like {@code
+ * do} and {@code define}, which are given the term and evaluate it's arguments
+ * themselves. Strict builtins can be called with values directly through
+ * {@link #call(Object[])}, which is how the faster engines call them, and
+ * every builtin has a name so engines can recognize the forms and operators
+ * they implement themselves.
+ *
+ * Some strict builtins (like {@code list}) convert exceptions thrown while
+ * evaluating their arguments to {@link EvalException}s, as they did when
+ * they evaluated the arguments themselves. Engines that evaluate the
+ * arguments have to do the same, or call them through {@link #apply(Ast.Term)}.
+ */
+final class Builtin implements Form {
+
+    @FunctionalInterface
+    interface Call {
+
+        Object call(Object[] args);
+
+    }
+
+    private final String name;
+    private final Interpreter interpreter;
+    private final Call call;
+    private final Form form;
+    private final boolean wraps;
+
+    private Builtin(String name, Interpreter interpreter, Call call, Form form, boolean wraps) {
+        this.name = name;
+        this.interpreter = interpreter;
+        this.call = call;
+        this.form = form;
+        this.wraps = wraps;
+    }
+
+    static Builtin strict(String name, Interpreter interpreter, Call call) {
+        return new Builtin(name, interpreter, call, null, false);
+    }
+
+    /**
+     * Returns a strict builtin which converts exceptions thrown while
+     * evaluating it's arguments to {@link EvalException}s.
+     */
+    static Builtin wrapping(String name, Interpreter interpreter, Call call) {
+        return new Builtin(name, interpreter, call, null, true);
+    }
+
+    static Builtin form(String name, Form form) {
+        return new Builtin(name, null, null, form, false);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean isStrict() {
+        return call != null;
+    }
+
+    boolean wrapsArguments() {
+        return wraps;
+    }
+
+    /**
+     * Calls a strict builtin with the values of it's arguments.
+     */
+    Object call(Object[] args) {
+        return call.call(args);
+    }
+
+    @Override
+    public Object apply(Ast.Term term) {
+        if (form != null) {
+            return form.apply(term);
+        }
+        Object[] values = new Object[term.getArgs().size()];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = interpreter.walk(term.getArgs().get(i));
+            }
+        } catch (Exception e) {
+            if (!wraps) {
+                throw e;
+            }
+            throw new EvalException(e.getMessage());
+        }
+        return call.call(values);
+    }
+
+    @Override
+    public String toString() {
+        return "Builtin{" + name + "}";
+    }
+
+}
@@ -0,0 +1,209 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+
+/**
+ * A compiled chunk of Whisp bytecode, used by the {@link
+ * Interpreter.Engine#BYTECODE} engine: either a top-level form, or the body of
+ * a function (which is compiled once and cached on it's {@link Layout}).
+ *
+ * The code is an array of ints, where each instruction is an opcode followed
+ * by a fixed number of operands (see {@link #OPERANDS}). Operands are either
+ * an index into the constant pool, a jump target, or a count. Instructions
+ * work on the operand stack of the {@link Machine}, and variables are read
+ * from the slots of the current scope when the {@link Resolver} has given
+ * them an address.
+ *
+ * Builtin forms that the compiler implements itself (such as {@code while})
+ * start with a {@link #GUARD}, which checks the form hasn't been rebound and
+ * otherwise calls whatever the name is bound to the same way as the
+ * tree-walking interpreter, skipping the inlined code. Ranges of code that
+ * the tree-walking interpreter evaluates inside a {@code try} (the arguments
+ * of {@code do}, for example, which convert any exception into an {@link
+ * EvalException}) are recorded in {@link #wraps} so that the machine can do
+ * the same.
+ */
+final class Bytecode {
+
+    /** {@code CONST c}: pushes constant {@code c}. */
+    static final int CONST = 0;
+    /** {@code LOAD c}: pushes the variable of the identifier {@code c}. */
+    static final int LOAD = 1;
+    /** {@code DEFINE c}: pops a value, defines the symbol {@code c} and pushes VOID. */
+    static final int DEFINE = 2;
+    /** {@code SET c}: pops a value, sets the symbol {@code c} and pushes VOID. */
+    static final int SET = 3;
+    /** {@code POP}: discards the top of the stack. */
+    static final int POP = 4;
+    /** {@code JUMP t}: continues at {@code t}. */
+    static final int JUMP = 5;
+    /** {@code JUMP_FALSE t}: pops a boolean and continues at {@code t} if it's false. */
+    static final int JUMP_FALSE = 6;
+    /** {@code JUMP_TRUE t}: pops a boolean and continues at {@code t} if it's true. */
+    static final int JUMP_TRUE = 7;
+    /**
+     * {@code FUNCTION c t}: looks up the function called by the term {@code
+     * c}, and pushes it if it takes the values of it's arguments. Otherwise,
+     * calls it with the term, pushes the result and continues at {@code t}.
+     */
+    static final int FUNCTION = 8;
+    /** {@code CALL n}: pops {@code n} arguments and a function, and pushes the result of calling it. */
+    static final int CALL = 9;
+    /** {@code RETURN}: pops the result of the chunk and returns to the caller. */
+    static final int RETURN = 10;
+    /**
+     * {@code GUARD c n t}: continues if the term {@code c} calls the builtin
+     * named by constant {@code n}, which is interned so it can be compared by
+     * identity. Otherwise, calls the function with the term, pushes the
+     * result and continues at {@code t}.
+     */
+    static final int GUARD = 11;
+    /** {@code ENTER c}: enters the scope of the block term {@code c}. */
+    static final int ENTER = 12;
+    /** {@code EXIT c}: leaves the scope of the block term {@code c}. */
+    static final int EXIT = 13;
+    /** {@code ITER}: pops a list and pushes an iterator over it. */
+    static final int ITER = 14;
+    /**
+     * {@code NEXT c t}: sets the symbol {@code c} to the next value of the
+     * iterator on the stack, or pops the iterator and continues at {@code t}
+     * if there isn't one.
+     */
+    static final int NEXT = 15;
+    /**
+     * {@code INVOKE c a}: calls the function called by the term {@code c},
+     * whose arguments are all literals or identifiers, and pushes the result.
+     * Constant {@code a} is an array with the identifier or the value of each
+     * argument. This combines a {@link #FUNCTION}, the {@link #LOAD}s and
+     * {@link #CONST}s of the arguments and a {@link #CALL}, which is the most
+     * common kind of call, into a single instruction.
+     */
+    static final int INVOKE = 16;
+
+    static final String[] NAMES = {
+            "CONST", "LOAD", "DEFINE", "SET", "POP", "JUMP", "JUMP_FALSE", "JUMP_TRUE",
+            "FUNCTION", "CALL", "RETURN", "GUARD", "ENTER", "EXIT", "ITER", "NEXT", "INVOKE"
+    };
+
+    /**
+     * The number of operands of each opcode.
+     */
+    static final int[] OPERANDS = {1, 1, 1, 1, 0, 1, 1, 1, 2, 1, 0, 3, 1, 1, 0, 2, 2};
+
+    final int[] code;
+    final Object[] constants;
+
+    /**
+     * The constants with each number rounded to a double, for interpreters in
+     * fast-math mode, created the first time they're needed. Chunks are cached
+     * on shared ASTs, so the array is published through a volatile field.
+     */
+    private volatile Object[] approximations;
+
+    /**
+     * Pairs of {@code [start, end)} code ranges in which any exception is
+     * converted to an {@link EvalException}.
+     */
+    final int[] wraps;
+
+    Bytecode(int[] code, Object[] constants, int[] wraps) {
+        this.code = code;
+        this.constants = constants;
+        this.wraps = wraps;
+    }
+
+    /**
+     * Returns the constants to run the code with, whose numbers are doubles in
+     * fast-math mode (including the values of an {@link #INVOKE}).
+     */
+    Object[] getConstants(boolean fastMath) {
+        if (!fastMath) {
+            return constants;
+        }
+        Object[] approximations = this.approximations;
+        if (approximations == null) {
+            approximations = approximate(constants);
+            this.approximations = approximations;
+        }
+        return approximations;
+    }
+
+    private static Object[] approximate(Object[] constants) {
+        Object[] approximations = new Object[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            if (constants[i] instanceof BigDecimal) {
+                approximations[i] = ((BigDecimal) constants[i]).doubleValue();
+            } else if (constants[i] instanceof Object[]) {
+                approximations[i] = approximate((Object[]) constants[i]);
+            } else {
+                approximations[i] = constants[i];
+            }
+        }
+        return approximations;
+    }
+
+    /**
+     * Returns whether the instruction at the given position is inside a range
+     * of {@link #wraps}.
+     */
+    boolean wraps(int pc) {
+        for (int i = 0; i < wraps.length; i += 2) {
+            if (wraps[i] <= pc && pc < wraps[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a listing of the instructions, one per line, with the position
+     * of each instruction and a description of constants in brackets.
+     */
+    String disassemble() {
+        StringBuilder builder = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += 1 + OPERANDS[code[pc]]) {
+            int op = code[pc];
+            builder.append(String.format(OPERANDS[op] > 0 ? "%04d %-10s" : "%04d %s", pc, NAMES[op]));
+            for (int i = 1; i <= OPERANDS[op]; i++) {
+                builder.append(' ').append(code[pc + i]);
+            }
+            switch (op) {
+                case CONST:
+                case LOAD:
+                case DEFINE:
+                case SET:
+                case FUNCTION:
+                case GUARD:
+                case ENTER:
+                case EXIT:
+                case NEXT:
+                case INVOKE:
+                    builder.append(" (").append(describe(constants[code[pc + 1]])).append(')');
+            }
+            builder.append('\n');
+        }
+        for (int i = 0; i < wraps.length; i += 2) {
+            builder.append(String.format("wrap %04d-%04d\n", wraps[i], wraps[i + 1]));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return disassemble();
+    }
+
+    private static String describe(Object constant) {
+        if (constant instanceof Ast.Term) {
+            return ((Ast.Term) constant).getName();
+        } else if (constant instanceof Ast.Identifier) {
+            return ((Ast.Identifier) constant).getName();
+        } else if (constant instanceof String) {
+            return "\"" + constant + "\"";
+        } else if (constant == Interpreter.VOID) {
+            return "VOID";
+        }
+        return String.valueOf(constant);
+    }
+
+}
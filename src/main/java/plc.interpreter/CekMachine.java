@@ -0,0 +1,424 @@
+package plc.interpreter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * An iterative evaluator for the {@link Interpreter.Engine#CEK} engine, in
+ * the style of a CEK machine: the control is the AST being evaluated (or the
+ * value being returned), the environment is the interpreter's scope, and the
+ * continuation is a stack of frames kept in arrays rather than on the Java
+ * stack. Calls of functions created by {@code define} and the builtin forms
+ * push a frame and continue with their first argument, so the depth of Whisp
+ * recursion isn't limited by the Java stack (only by {@link
+ * Interpreter#setMaxDepth(int)}), and nothing is allocated per frame.
+ *
+ * Frames that would restore the caller's scope are not pushed on top of one
+ * that already does, so calls in tail position don't grow the stack. When an
+ * exception is thrown, the frames are unwound to restore the scopes, and the
+ * exception is converted to an {@link EvalException} if any of them is a form
+ * that does so (or the arguments of a builtin that does). Forms called with arguments the builtin would reject, and
+ * functions the machine doesn't know, are applied by the interpreter as usual.
+ *
+ * Each interpreter has one machine, whose stack is reused by every evaluation.
+ * The machine checks whether the thread has been interrupted before each step,
+ * and stops with an {@link EvalException} if it has.
+ */
+final class CekMachine {
+
+    /**
+     * The kinds of frames: the arguments of a strict function, the scope to
+     * restore when a function returns, and the builtin forms.
+     */
+    private static final int CALL = 0, RETURN = 1, DO = 2, WHILE = 3, FOR = 4, AND = 5, OR = 6, NOT = 7, EQUALS = 8, DEFINE = 9, SET = 10;
+
+    /**
+     * Returned instead of a value when a frame has been pushed, so the machine
+     * continues with {@link #next}. This can't be null, which is a value
+     * functions defined by Java callers can return.
+     */
+    private static final Object PUSHED = new Object();
+
+    private final Interpreter interpreter;
+
+    /**
+     * The frames, each of which has a kind, the term it is evaluating, the
+     * scope to restore, the function of a call or the iterator of a {@code
+     * for}, the values of the arguments of a call, and the index of the
+     * argument being evaluated. Frames at or above the base belong to the
+     * current evaluation.
+     */
+    private int[] kinds = new int[64];
+    private Ast.Term[] terms = new Ast.Term[64];
+    private Scope[] scopes = new Scope[64];
+    private Object[] objects = new Object[64];
+    private Object[] arguments = new Object[64];
+    private int[] indices = new int[64];
+    private int sp;
+    private int base;
+
+    /**
+     * The number of {@code RETURN} frames on the stack, which is the depth of
+     * calls limited by {@link Interpreter#setMaxDepth(int)}.
+     */
+    private int depth;
+
+    /**
+     * The value returned by the last frame that completed, and the AST the
+     * machine continues with after pushing a frame. Each step either produces
+     * a value, or pushes a frame and sets the next AST to evaluate.
+     */
+    private Object value;
+    private Ast next;
+
+    CekMachine(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Evaluates the AST in the interpreter's current scope. Evaluations may be
+     * nested (such as when a function is called by another engine), in which
+     * case the frames are pushed above those of the outer evaluation.
+     */
+    Object run(Ast ast) {
+        int outer = base;
+        base = sp;
+        Ast control = ast;
+        Object value = null;
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new EvalException("Interrupted.");
+                }
+                if (control != null) {
+                    value = evaluate(control);
+                    control = value == PUSHED ? next() : null;
+                } else if (sp == base) {
+                    return value;
+                } else {
+                    control = resume(value);
+                    if (control == null) {
+                        value = this.value;
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            boolean wraps = false;
+            while (sp > base) {
+                int kind = kinds[--sp];
+                if (kind == RETURN) {
+                    depth--;
+                }
+                wraps |= kind == DO || kind == FOR || kind == AND || kind == NOT || kind == EQUALS || kind == DEFINE
+                        || kind == CALL && objects[sp] instanceof Builtin && ((Builtin) objects[sp]).wrapsArguments();
+                if (scopes[sp] != null) {
+                    interpreter.scope = scopes[sp];
+                }
+                clear(sp);
+            }
+            if (!wraps || e instanceof Error) {
+                throw e;
+            }
+            throw new EvalException(e.getMessage());
+        } finally {
+            base = outer;
+            this.value = null;
+        }
+    }
+
+    private Ast next() {
+        Ast ast = next;
+        next = null;
+        return ast;
+    }
+
+    /**
+     * Starts evaluating an AST, returning it's value or {@link #PUSHED} if a
+     * frame has been pushed to evaluate it's arguments (with the first in {@link #next}).
+     */
+    private Object evaluate(Ast ast) {
+        if (!(ast instanceof Ast.Term)) {
+            return atom(ast);
+        }
+        Ast.Term term = (Ast.Term) ast;
+        Function<List<Ast>, Object> function = interpreter.lookup(term);
+        List<Ast> args = term.getArgs();
+        if (function instanceof Lambda && ((Lambda) function).getInterpreter() == interpreter
+                || function instanceof Builtin && ((Builtin) function).isStrict()) {
+            Object[] values = new Object[args.size()];
+            int index = arguments(args, values, 0);
+            if (index == values.length) {
+                return call(function, values);
+            }
+            push(CALL, term, null, function, values);
+            indices[sp - 1] = index;
+            return start(args.get(index));
+        } else if (!(function instanceof Builtin)) {
+            return interpreter.apply(function, term);
+        }
+        switch (((Builtin) function).getName()) {
+            case "do":
+                if (args.isEmpty()) {
+                    return Interpreter.VOID;
+                }
+                push(DO, term, interpreter.scope, null, null);
+                interpreter.scope = interpreter.block(term);
+                return start(args.get(0));
+            case "while":
+                if (args.isEmpty()) {
+                    break;
+                }
+                push(WHILE, term, interpreter.scope, null, null);
+                interpreter.scope = interpreter.block(term);
+                return start(args.get(0));
+            case "for":
+                if (args.size() < 2 || !(args.get(0) instanceof Ast.Term) || ((Ast.Term) args.get(0)).getArgs().size() != 1) {
+                    break;
+                }
+                push(FOR, term, interpreter.scope, null, null);
+                indices[sp - 1] = -1;
+                return start(((Ast.Term) args.get(0)).getArgs().get(0));
+            case "and":
+            case "or":
+                if (args.isEmpty()) {
+                    return ((Builtin) function).getName().equals("and");
+                }
+                push(((Builtin) function).getName().equals("and") ? AND : OR, term, null, null, null);
+                return start(args.get(0));
+            case "not":
+                if (args.size() != 1) {
+                    break;
+                }
+                push(NOT, term, null, null, null);
+                return start(args.get(0));
+            case "equals?":
+                if (args.size() != 2) {
+                    break;
+                }
+                push(EQUALS, term, null, null, new Object[2]);
+                return start(args.get(0));
+            case "define":
+            case "set!":
+                if (args.size() != 2 || !(args.get(0) instanceof Ast.Identifier)) {
+                    break;
+                }
+                push(((Builtin) function).getName().equals("define") ? DEFINE : SET, term, null, null, null);
+                return start(args.get(1));
+        }
+        return interpreter.apply(function, term);
+    }
+
+    /**
+     * Returns the value of an identifier or literal, which doesn't need a step
+     * of it's own.
+     */
+    private Object atom(Ast ast) {
+        if (ast instanceof Ast.Identifier) {
+            return interpreter.lookup(((Ast.Identifier) ast).address, ((Ast.Identifier) ast).getSymbol());
+        } else if (ast instanceof Ast.NumberLiteral) {
+            return interpreter.literal((Ast.NumberLiteral) ast);
+        } else {
+            return ((Ast.StringLiteral) ast).getValue();
+        }
+    }
+
+    /**
+     * Evaluates the arguments of a call from the given index that aren't
+     * terms, returning the index of the first term (or the number of
+     * arguments, if there isn't one).
+     */
+    private int arguments(List<Ast> args, Object[] values, int index) {
+        while (index < values.length && !(args.get(index) instanceof Ast.Term)) {
+            values[index] = atom(args.get(index));
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns {@link #PUSHED}, so the machine continues with the given AST.
+     */
+    private Object start(Ast ast) {
+        next = ast;
+        return PUSHED;
+    }
+
+    /**
+     * Continues the top frame with the value of the argument it was
+     * evaluating, returning the next AST to evaluate or null if the frame has
+     * completed (with it's result in {@link #value}).
+     */
+    private Ast resume(Object result) {
+        int top = sp - 1;
+        if (kinds[top] == RETURN) {
+            interpreter.scope = scopes[top];
+            depth--;
+            pop();
+            return complete(result);
+        }
+        Ast.Term term = terms[top];
+        List<Ast> args = term.getArgs();
+        int index = indices[top];
+        switch (kinds[top]) {
+            case CALL: {
+                Object[] values = (Object[]) arguments[top];
+                values[index] = result;
+                index = arguments(args, values, index + 1);
+                if (index < values.length) {
+                    indices[top] = index;
+                    return args.get(index);
+                }
+                Object function = objects[top];
+                pop();
+                return complete(call(function, values));
+            }
+            case DO:
+                if (++index < args.size()) {
+                    indices[top] = index;
+                    return args.get(index);
+                }
+                interpreter.scope = scopes[top];
+                pop();
+                return complete(result != null ? result : Interpreter.VOID);
+            case WHILE:
+                if (index == 0 && Interpreter.requireType(Boolean.class, result) != Boolean.TRUE) {
+                    interpreter.scope = scopes[top];
+                    pop();
+                    return complete(Interpreter.VOID);
+                }
+                index = ++index < args.size() ? index : 0;
+                indices[top] = index;
+                return args.get(index);
+            case FOR: {
+                Iterator<?> iterator;
+                Symbol variable = ((Ast.Term) args.get(0)).getSymbol();
+                if (index < 0) {
+                    iterator = Interpreter.requireType(List.class, result).iterator();
+                    objects[top] = iterator;
+                    interpreter.scope = interpreter.block(term);
+                    interpreter.scope.define(variable, Interpreter.VOID);
+                } else {
+                    iterator = (Iterator<?>) objects[top];
+                }
+                if (index > 0 && index + 1 < args.size()) {
+                    indices[top] = index + 1;
+                    return args.get(index + 1);
+                }
+                if (iterator.hasNext()) {
+                    interpreter.scope.set(variable, iterator.next());
+                    indices[top] = 1;
+                    return args.get(1);
+                }
+                interpreter.scope = scopes[top];
+                pop();
+                return complete(Interpreter.VOID);
+            }
+            case AND:
+            case OR: {
+                boolean and = kinds[top] == AND;
+                if (Interpreter.requireType(Boolean.class, result) != and || ++index == args.size()) {
+                    pop();
+                    return complete((Boolean) result);
+                }
+                indices[top] = index;
+                return args.get(index);
+            }
+            case NOT: {
+                Object value = !Interpreter.requireType(Boolean.class, result);
+                pop();
+                return complete(value);
+            }
+            case EQUALS: {
+                Object[] values = (Object[]) arguments[top];
+                values[index] = result;
+                if (index == 0) {
+                    indices[top] = 1;
+                    return args.get(1);
+                }
+                pop();
+                return complete(Objects.deepEquals(values[0], values[1]));
+            }
+            case DEFINE:
+                interpreter.scope.define(((Ast.Identifier) args.get(0)).getSymbol(), result);
+                pop();
+                return complete(Interpreter.VOID);
+            case SET:
+                interpreter.scope.set(((Ast.Identifier) args.get(0)).getSymbol(), result);
+                pop();
+                return complete(Interpreter.VOID);
+            default:
+                throw new AssertionError(kinds[top]);
+        }
+    }
+
+    /**
+     * Calls a strict function with the values of it's arguments, which for a
+     * function created by {@code define} pushes a frame to restore the scope
+     * (unless the top frame already does) and continues with the body.
+     */
+    private Object call(Object function, Object[] values) {
+        if (function instanceof Builtin) {
+            return ((Builtin) function).call(values);
+        }
+        Lambda lambda = (Lambda) function;
+        Scope frame = lambda.frame(values);
+        if (sp == base || kinds[sp - 1] != RETURN) {
+            if (depth == interpreter.getMaxDepth()) {
+                throw new EvalException("Maximum call depth of " + depth + " exceeded.");
+            }
+            push(RETURN, null, interpreter.scope, null, null);
+            depth++;
+        }
+        interpreter.scope = frame;
+        return start(lambda.getLayout().getBody());
+    }
+
+    /**
+     * Completes the top frame with a value, or continues with the AST in
+     * {@link #next} if the value is {@link #PUSHED}.
+     */
+    private Ast complete(Object value) {
+        if (value == PUSHED) {
+            return next();
+        }
+        this.value = value;
+        return null;
+    }
+
+    private void push(int kind, Ast.Term term, Scope scope, Object object, Object[] values) {
+        if (sp == kinds.length) {
+            int length = 2 * sp;
+            kinds = Arrays.copyOf(kinds, length);
+            terms = Arrays.copyOf(terms, length);
+            scopes = Arrays.copyOf(scopes, length);
+            objects = Arrays.copyOf(objects, length);
+            arguments = Arrays.copyOf(arguments, length);
+            indices = Arrays.copyOf(indices, length);
+        }
+        kinds[sp] = kind;
+        terms[sp] = term;
+        scopes[sp] = scope;
+        objects[sp] = object;
+        arguments[sp] = values;
+        indices[sp] = 0;
+        sp++;
+    }
+
+    private void pop() {
+        clear(--sp);
+    }
+
+    /**
+     * Clears the references held by a frame, so they can be collected.
+     */
+    private void clear(int frame) {
+        terms[frame] = null;
+        scopes[frame] = null;
+        objects[frame] = null;
+        arguments[frame] = null;
+    }
+
+}
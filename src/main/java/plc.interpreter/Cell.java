@@ -0,0 +1,16 @@
+package plc.interpreter;
+
+/**
+ * A mutable box holding the value of a binding in a {@link Scope}. Cells are
+ * never replaced once created ({@code set!} updates the value in place), so
+ * call sites can hold on to the cell of the function they call.
+ */
+final class Cell {
+
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+
+}
@@ -0,0 +1,435 @@
+package plc.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, with just what the {@link
+ * JvmCompiler} needs: a constant pool, fields, and methods with code and
+ * exception handlers.
+ *
+ * Classes are written with version 49 (Java 5), which is verified by type
+ * inference, so the writer doesn't need to compute stack map frames. The
+ * maximum stack size of each method is computed as instructions are added,
+ * which requires the depth of the stack to be the same on every path to an
+ * instruction (as it is for code compiled from expressions).
+ */
+final class ClassFile {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 1, ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC = 18, LDC_W = 19;
+    static final int ALOAD = 25, AALOAD = 50, ASTORE = 58, AASTORE = 83;
+    static final int POP = 87, DUP = 89;
+    static final int IFEQ = 153, IFNE = 154, GOTO = 167, IFNULL = 198, IFNONNULL = 199;
+    static final int ARETURN = 176, RETURN = 177;
+    static final int GETSTATIC = 178, GETFIELD = 180, PUTFIELD = 181;
+    static final int INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184, INVOKEINTERFACE = 185;
+    static final int NEW = 187, ANEWARRAY = 189, ATHROW = 191, CHECKCAST = 192, WIDE = 196;
+
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolSize = 1;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void field(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Adds a method, returning the code to add instructions to. The
+     * parameters (including {@code this}, unless the method is static) take
+     * up the first locals.
+     */
+    Code method(int access, String name, String descriptor) {
+        Code code = new Code(access, name, descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            int thisClass = type(name);
+            int superClass = type(superName);
+            int[] interfaceClasses = new int[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaceClasses[i] = type(interfaces[i]);
+            }
+            List<byte[]> methodBytes = new ArrayList<>();
+            for (Code method : methods) {
+                methodBytes.add(method.toByteArray());
+            }
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolSize);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceClasses.length);
+            for (int interfaceClass : interfaceClasses) {
+                out.writeShort(interfaceClass);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methodBytes.size());
+            for (byte[] method : methodBytes) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int type(String name) {
+        int index = utf8(name);
+        return entry("C" + name, out -> {
+            out.writeByte(7);
+            out.writeShort(index);
+        });
+    }
+
+    int string(String value) {
+        int index = utf8(value);
+        return entry("S" + value, out -> {
+            out.writeByte(8);
+            out.writeShort(index);
+        });
+    }
+
+    int integer(int value) {
+        return entry("I" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int member(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = type(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + ":" + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return entry(tag + owner + "." + name + ":" + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Entry {
+
+        void write(DataOutputStream out) throws IOException;
+
+    }
+
+    private int entry(String key, Entry entry) {
+        Integer index = entries.get(key);
+        if (index == null) {
+            try {
+                entry.write(poolOut);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            index = poolSize++;
+            if (index > 0xFFFF) {
+                throw new IllegalStateException("Too many constants.");
+            }
+            entries.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * A position in the code, which may be jumped to before it is marked.
+     */
+    static final class Label {
+
+        private int position = -1;
+        private int depth = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+
+    }
+
+    final class Code {
+
+        private final int access;
+        private final String name;
+        private final String descriptor;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private final List<int[]> handlers = new ArrayList<>();
+        private int locals;
+        private int depth;
+        private int maxDepth;
+
+        private Code(int access, String name, String descriptor) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = ((access & ACC_STATIC) != 0 ? 0 : 1) + count(descriptor.substring(1, descriptor.indexOf(')')));
+        }
+
+        /**
+         * Allocates a new local variable, returning it's index.
+         */
+        int local() {
+            return locals++;
+        }
+
+        /**
+         * Adds an instruction without operands, which changes the depth of
+         * the stack by the given amount.
+         */
+        void op(int opcode, int delta) {
+            bytes.write(opcode);
+            adjust(delta);
+            if (opcode == ARETURN || opcode == RETURN || opcode == ATHROW) {
+                depth = -1;
+            }
+        }
+
+        void load(int local) {
+            variable(ALOAD, local);
+            adjust(1);
+        }
+
+        void store(int local) {
+            variable(ASTORE, local);
+            adjust(-1);
+        }
+
+        void constant(int value) {
+            if (value >= -1 && value <= 5) {
+                bytes.write(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                bytes.write(BIPUSH);
+                bytes.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                bytes.write(SIPUSH);
+                write16(value);
+            } else {
+                ldc(integer(value));
+            }
+            adjust(1);
+        }
+
+        void string(String value) {
+            ldc(ClassFile.this.string(value));
+            adjust(1);
+        }
+
+        /**
+         * Adds an instruction with a class operand, {@code NEW}, {@code
+         * ANEWARRAY} or {@code CHECKCAST}.
+         */
+        void type(int opcode, String type) {
+            bytes.write(opcode);
+            write16(ClassFile.this.type(type));
+            adjust(opcode == NEW ? 1 : 0);
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            bytes.write(opcode);
+            write16(member(9, owner, name, descriptor));
+            int size = count(descriptor);
+            adjust(opcode == GETSTATIC ? size : opcode == GETFIELD ? size - 1 : opcode == PUTFIELD ? -size - 1 : -size);
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            bytes.write(opcode);
+            write16(member(opcode == INVOKEINTERFACE ? 11 : 10, owner, name, descriptor));
+            int arguments = count(descriptor.substring(1, descriptor.indexOf(')')));
+            if (opcode == INVOKEINTERFACE) {
+                bytes.write(arguments + 1);
+                bytes.write(0);
+            }
+            int result = descriptor.endsWith(")V") ? 0 : 1;
+            adjust(result - arguments - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        void jump(int opcode, Label label) {
+            int position = bytes.size();
+            bytes.write(opcode);
+            adjust(opcode == GOTO ? 0 : -1);
+            if (label.position >= 0) {
+                write16(label.position - position);
+            } else {
+                label.jumps.add(position);
+                write16(0);
+            }
+            label.depth = depth;
+            if (opcode == GOTO) {
+                depth = -1;
+            }
+        }
+
+        void mark(Label label) {
+            label.position = bytes.size();
+            if (label.depth >= 0) {
+                depth = label.depth;
+            }
+            label.depth = depth;
+        }
+
+        /**
+         * Marks the handler of exceptions of the given type thrown by the code
+         * between the start and end labels, which starts with the exception
+         * on the stack.
+         */
+        void handler(Label start, Label end, Label handler, String type) {
+            handlers.add(new int[] {start.position, end.position, bytes.size(), ClassFile.this.type(type)});
+            handler.position = bytes.size();
+            depth = 1;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xFF) {
+                bytes.write(LDC);
+                bytes.write(index);
+            } else {
+                bytes.write(LDC_W);
+                write16(index);
+            }
+        }
+
+        private void variable(int opcode, int local) {
+            if (local <= 3) {
+                bytes.write((opcode == ALOAD ? 42 : 75) + local);
+            } else if (local <= 0xFF) {
+                bytes.write(opcode);
+                bytes.write(local);
+            } else {
+                bytes.write(WIDE);
+                bytes.write(opcode);
+                write16(local);
+            }
+        }
+
+        private void adjust(int delta) {
+            depth += delta;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void write16(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        private byte[] toByteArray() throws IOException {
+            byte[] code = bytes.toByteArray();
+            for (Label label : labels) {
+                for (int jump : label.jumps) {
+                    int offset = label.position - jump;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new IllegalStateException("Jump is too far.");
+                    }
+                    code[jump + 1] = (byte) (offset >> 8);
+                    code[jump + 2] = (byte) offset;
+                }
+            }
+            if (code.length > 0xFFFF || locals > 0xFFFF) {
+                throw new IllegalStateException("Method is too large.");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length + 8 * handlers.size());
+            out.writeShort(maxDepth);
+            out.writeShort(locals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(handlers.size());
+            for (int[] handler : handlers) {
+                for (int value : handler) {
+                    out.writeShort(value);
+                }
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        }
+
+        Label label() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+    }
+
+    /**
+     * Returns the number of slots taken by the types in the descriptor, which
+     * are all references or ints.
+     */
+    private static int count(String descriptor) {
+        int count = 0;
+        for (int i = 0; i < descriptor.length(); i++) {
+            char c = descriptor.charAt(i);
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            count++;
+        }
+        return count;
+    }
+
+}
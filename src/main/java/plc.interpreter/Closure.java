@@ -0,0 +1,16 @@
+package plc.interpreter;
+
+/**
+ * An {@link Ast} compiled by the {@link ClosureCompiler}, used by the {@link
+ * Interpreter.Engine#CLOSURES} engine.
+ *
+ * Closures are bound to the closures of their arguments and anything else
+ * that can be determined from the AST, but not to an interpreter or scope, so
+ * the closure of an AST is cached on it and shared by every evaluation.
+ */
+@FunctionalInterface
+interface Closure {
+
+    Object evaluate(Interpreter interpreter);
+
+}
@@ -0,0 +1,331 @@
+package plc.interpreter;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Compiles an {@link Ast} to a tree of {@link Closure}s, each specialized for
+ * it's node when it's compiled rather than when it's evaluated: literals
+ * become constants, variables with an address from the {@link Resolver}
+ * become slot reads, and calls evaluate their arguments into an array and
+ * call builtins and functions created by {@code define} with the values
+ * directly. The builtin forms {@code do}, {@code while}, {@code for}, {@code
+ * and}, {@code or}, {@code define} and {@code set!} are implemented on the
+ * closures of their arguments, after checking that the name still refers to
+ * the builtin (otherwise, the term is called the same way as the tree-walking
+ * interpreter).
+ *
+ * Each AST caches it's closure (except for the closures of a function body in
+ * tail position, see {@link #compileBody(Ast)}), so a function body is
+ * compiled the first time the function is called and top-level forms that are evaluated again, such
+ * as from a {@link ParseCache}, aren't compiled again. A closure depends on
+ * the annotations of it's node, which is safe to cache on the node because
+ * the {@link Resolver} never annotates nodes shared by an {@link AstInterner}:
+ * a function body is compiled from it's {@link Layout#getBody() resolved
+ * body}, whose annotated nodes belong to that one position.
+ */
+final class ClosureCompiler {
+
+    private ClosureCompiler() {}
+
+    /**
+     * Returns the closure of the AST, compiling it if it hasn't been already.
+     */
+    static Closure compile(Ast ast) {
+        Closure closure = ast.closure;
+        if (closure == null) {
+            closure = create(ast);
+            ast.closure = closure;
+        }
+        return closure;
+    }
+
+    /**
+     * Compiles the body of a function, which is in tail position: a call of a
+     * function created by {@code define} (in the same interpreter) returns a
+     * {@link TailCall} for the {@link Lambda} to make, and so does the last
+     * form of a {@code do} in tail position. The same ASTs can also be
+     * evaluated outside of a tail position (such as by a builtin that is
+     * given the term), so these closures aren't cached on the AST, and the
+     * closure of the body is cached by it's {@link Layout} instead.
+     */
+    static Closure compileBody(Ast body) {
+        if (!(body instanceof Ast.Term)) {
+            return compile(body);
+        }
+        Ast.Term term = (Ast.Term) body;
+        List<Ast> args = term.getArgs();
+        if (term.getName().equals("do") && !args.isEmpty()) {
+            Closure[] closures = compile(args);
+            closures[closures.length - 1] = compileBody(args.get(args.size() - 1));
+            return guard(term, block(term, closures));
+        }
+        Closure closure = compile(term);
+        return closure instanceof Call ? new Call(term, true) : closure;
+    }
+
+    private static Closure create(Ast ast) {
+        if (ast instanceof Ast.Term) {
+            return term((Ast.Term) ast);
+        } else if (ast instanceof Ast.Identifier) {
+            return variable((Ast.Identifier) ast);
+        } else if (ast instanceof Ast.NumberLiteral) {
+            Ast.NumberLiteral literal = (Ast.NumberLiteral) ast;
+            return interpreter -> interpreter.literal(literal);
+        } else if (ast instanceof Ast.StringLiteral) {
+            Object value = ((Ast.StringLiteral) ast).getValue();
+            return interpreter -> value;
+        } else {
+            throw new AssertionError(ast.getClass());
+        }
+    }
+
+    private static Closure variable(Ast.Identifier identifier) {
+        Symbol symbol = identifier.getSymbol();
+        Address address = identifier.address;
+        if (address == null) {
+            return interpreter -> interpreter.scope.lookup(symbol);
+        } else if (address.isFree()) {
+            return interpreter -> interpreter.lookup(address, symbol);
+        }
+        int slot = address.slot;
+        return interpreter -> {
+            Scope scope = interpreter.scope.resolve(address);
+            Object value = scope != null ? scope.get(slot) : null;
+            return value != null ? value : interpreter.scope.lookup(symbol);
+        };
+    }
+
+    private static Closure term(Ast.Term term) {
+        List<Ast> args = term.getArgs();
+        switch (term.getName()) {
+            case "do":
+                return guard(term, block(term, compile(args)));
+            case "while":
+                if (args.isEmpty()) {
+                    return new Call(term);
+                }
+                return guard(term, loop(term, compile(args.get(0)), compile(args.subList(1, args.size()))));
+            case "for":
+                if (args.size() >= 2 && args.get(0) instanceof Ast.Term && ((Ast.Term) args.get(0)).getArgs().size() == 1) {
+                    return guard(term, iterate(term, compile(args.subList(1, args.size()))));
+                }
+                return new Call(term);
+            case "and":
+                return guard(term, and(compile(args)));
+            case "or":
+                return guard(term, or(compile(args)));
+            case "define":
+                if (args.size() == 2 && args.get(0) instanceof Ast.Identifier) {
+                    Symbol name = ((Ast.Identifier) args.get(0)).getSymbol();
+                    Closure value = compile(args.get(1));
+                    return guard(term, interpreter -> {
+                        try {
+                            interpreter.scope.define(name, value.evaluate(interpreter));
+                            return Interpreter.VOID;
+                        } catch (Exception e) {
+                            throw new EvalException(e.getMessage());
+                        }
+                    });
+                }
+                return new Call(term);
+            case "set!":
+                if (args.size() == 2 && args.get(0) instanceof Ast.Identifier) {
+                    Symbol name = ((Ast.Identifier) args.get(0)).getSymbol();
+                    Closure value = compile(args.get(1));
+                    return guard(term, interpreter -> {
+                        interpreter.scope.set(name, value.evaluate(interpreter));
+                        return Interpreter.VOID;
+                    });
+                }
+                return new Call(term);
+            default:
+                return new Call(term);
+        }
+    }
+
+    /**
+     * Returns a closure which runs the given closure if the term's name still
+     * refers to the builtin of that name, and otherwise calls whatever it does
+     * refer to with the term.
+     */
+    private static Closure guard(Ast.Term term, Closure form) {
+        String name = term.getName().intern();
+        return interpreter -> {
+            Function<List<Ast>, Object> function = interpreter.lookup(term);
+            if (function instanceof Builtin && ((Builtin) function).getName() == name) {
+                return form.evaluate(interpreter);
+            }
+            return interpreter.apply(function, term);
+        };
+    }
+
+    private static Closure block(Ast.Term term, Closure[] args) {
+        return interpreter -> {
+            Scope current = interpreter.scope;
+            try {
+                interpreter.scope = interpreter.block(term);
+                Object result = null;
+                for (Closure arg : args) {
+                    result = arg.evaluate(interpreter);
+                }
+                if (result == null) {
+                    return Interpreter.VOID;
+                } else if (result instanceof TailCall) {
+                    ((TailCall) result).wrap();
+                }
+                return result;
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            } finally {
+                interpreter.scope = current;
+            }
+        };
+    }
+
+    private static Closure loop(Ast.Term term, Closure condition, Closure[] body) {
+        return interpreter -> {
+            Scope current = interpreter.scope;
+            interpreter.scope = interpreter.block(term);
+            try {
+                while (Interpreter.requireType(Boolean.class, condition.evaluate(interpreter)) == Boolean.TRUE) {
+                    for (Closure statement : body) {
+                        statement.evaluate(interpreter);
+                    }
+                }
+            } finally {
+                interpreter.scope = current;
+            }
+            return Interpreter.VOID;
+        };
+    }
+
+    private static Closure iterate(Ast.Term term, Closure[] body) {
+        Ast.Term variable = (Ast.Term) term.getArgs().get(0);
+        Symbol name = variable.getSymbol();
+        Closure list = compile(variable.getArgs().get(0));
+        return interpreter -> {
+            Scope current = interpreter.scope;
+            try {
+                List<?> values = Interpreter.requireType(List.class, list.evaluate(interpreter));
+                interpreter.scope = interpreter.block(term);
+                interpreter.scope.define(name, Interpreter.VOID);
+                for (Object value : values) {
+                    interpreter.scope.set(name, value);
+                    for (Closure statement : body) {
+                        statement.evaluate(interpreter);
+                    }
+                }
+                return Interpreter.VOID;
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            } finally {
+                interpreter.scope = current;
+            }
+        };
+    }
+
+    private static Closure and(Closure[] args) {
+        return interpreter -> {
+            try {
+                for (Closure arg : args) {
+                    if (!Interpreter.requireType(Boolean.class, arg.evaluate(interpreter))) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            }
+        };
+    }
+
+    private static Closure or(Closure[] args) {
+        return interpreter -> {
+            for (Closure arg : args) {
+                if (Interpreter.requireType(Boolean.class, arg.evaluate(interpreter))) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static Closure[] compile(List<Ast> asts) {
+        Closure[] closures = new Closure[asts.size()];
+        for (int i = 0; i < closures.length; i++) {
+            closures[i] = compile(asts.get(i));
+        }
+        return closures;
+    }
+
+    /**
+     * Calls the function with the values of the arguments if it takes them
+     * (as builtins other than forms and functions created by {@code define}
+     * do), or with the term otherwise.
+     *
+     * The arguments are compiled the first time they're evaluated, since the
+     * term may be a form, such as the definition of a function whose body
+     * hasn't been resolved yet. A call in tail position returns a {@link
+     * TailCall} instead of calling a function created by {@code define}.
+     */
+    private static final class Call implements Closure {
+
+        private final Ast.Term term;
+        private final boolean tail;
+
+        /**
+         * The compiled arguments, which are published through a volatile
+         * field since the closure is cached on a (possibly shared) AST.
+         */
+        private volatile Closure[] args;
+
+        private Call(Ast.Term term) {
+            this(term, false);
+        }
+
+        private Call(Ast.Term term, boolean tail) {
+            this.term = term;
+            this.tail = tail;
+        }
+
+        @Override
+        public Object evaluate(Interpreter interpreter) {
+            Function<List<Ast>, Object> function = interpreter.lookup(term);
+            if (function instanceof Builtin && ((Builtin) function).isStrict()) {
+                Builtin builtin = (Builtin) function;
+                return builtin.call(builtin.wrapsArguments() ? wrapped(interpreter) : values(interpreter));
+            } else if (function instanceof Lambda) {
+                Lambda lambda = (Lambda) function;
+                if (tail && lambda.getInterpreter() == interpreter) {
+                    return new TailCall(lambda, values(interpreter), false);
+                }
+                return lambda.call(values(interpreter));
+            }
+            return interpreter.apply(function, term);
+        }
+
+        private Object[] values(Interpreter interpreter) {
+            Closure[] args = this.args;
+            if (args == null) {
+                args = compile(term.getArgs());
+                this.args = args;
+            }
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = args[i].evaluate(interpreter);
+            }
+            return values;
+        }
+
+        private Object[] wrapped(Interpreter interpreter) {
+            try {
+                return values(interpreter);
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,380 @@
+package plc.interpreter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary format for ASTs, used to precompile scripts so that loading
+ * them later skips the lexer and parser.
+ *
+ * The format starts with a header of the magic number {@code WHSP}, a version
+ * byte, and the {@link Source#hash(CharSequence)} of the source it was
+ * compiled from, which is used to detect stale files. This is followed by a
+ * table of every distinct name and string in the AST, and then the AST itself
+ * in prefix order, where each node is a tag byte followed by:
+ *
+ *  - {@link Ast.Term}: the name's table index and the number of arguments,
+ *    followed by the arguments themselves
+ *  - {@link Ast.Identifier} and {@link Ast.StringLiteral}: the table index
+ *  - {@link Ast.NumberLiteral}: the scale and the unscaled value, either as a
+ *    varint if it fits in a long or as two's complement bytes otherwise
+ *
+ * All integers are unsigned LEB128 varints, with signed values zigzag encoded.
+ * Nodes are encoded and decoded with explicit stacks, so (as with the parser)
+ * deeply nested ASTs don't overflow the Java stack.
+ *
+ * This class can also be run as a command line tool, which compiles each given
+ * {@code .whisp} file to a {@code .whispc} file next to it.
+ */
+public final class CompiledScript {
+
+    private static final int MAGIC = 0x57485350;
+    private static final byte VERSION = 1;
+
+    private static final byte TERM = 0;
+    private static final byte IDENTIFIER = 1;
+    private static final byte SMALL_NUMBER = 2;
+    private static final byte BIG_NUMBER = 3;
+    private static final byte STRING = 4;
+
+    private CompiledScript() {}
+
+    /**
+     * Compiles each of the given files, printing the size of the output.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: CompiledScript <file.whisp>...");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            Path path = Paths.get(arg);
+            Path compiled = compile(path);
+            System.out.println(path + " -> " + compiled + " (" + Files.size(compiled) + " bytes)");
+        }
+    }
+
+    /**
+     * Returns the path that the given source is compiled to.
+     */
+    public static Path compiledPath(Path source) {
+        return source.resolveSibling(source.getFileName() + "c");
+    }
+
+    /**
+     * Parses the given source file and writes the compiled AST to {@link
+     * #compiledPath(Path)}, returning that path. The file is written to a
+     * temporary file in the same directory and then moved into place, so a
+     * crash can't leave a partially written file behind.
+     */
+    public static Path compile(Path source) throws IOException {
+        CharSequence input = Source.map(source);
+        Path compiled = compiledPath(source);
+        Path temp = Files.createTempFile(compiled.toAbsolutePath().getParent(), compiled.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, encode(Parser.parse(input), Source.hash(input)));
+            Files.move(temp, compiled, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return compiled;
+    }
+
+    /**
+     * Loads the AST of the given source file, decoding the compiled file if it
+     * exists and was compiled from the current source. Otherwise, including
+     * when the compiled file is corrupt, the source is parsed as usual.
+     */
+    public static Ast load(Path source) throws IOException {
+        CharSequence input = Source.map(source);
+        Path compiled = compiledPath(source);
+        if (Files.isRegularFile(compiled)) {
+            ByteBuffer bytes;
+            try (FileChannel channel = FileChannel.open(compiled, StandardOpenOption.READ)) {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            try {
+                Ast ast = decode(bytes, Source.hash(input));
+                if (ast != null) {
+                    return ast;
+                }
+            } catch (IllegalStateException ignored) {
+                //A corrupt file is ignored like a stale one.
+            }
+        }
+        return Parser.parse(input);
+    }
+
+    /**
+     * Encodes the AST, recording the hash of the source it was parsed from.
+     */
+    public static byte[] encode(Ast ast, long hash) {
+        Map<String, Integer> table = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        ArrayDeque<Ast> stack = new ArrayDeque<>();
+        stack.push(ast);
+        while (!stack.isEmpty()) {
+            Ast node = stack.pop();
+            String string = null;
+            if (node instanceof Ast.Term) {
+                string = ((Ast.Term) node).getName();
+                ((Ast.Term) node).getArgs().forEach(stack::push);
+            } else if (node instanceof Ast.Identifier) {
+                string = ((Ast.Identifier) node).getName();
+            } else if (node instanceof Ast.StringLiteral) {
+                string = ((Ast.StringLiteral) node).getValue();
+            }
+            if (string != null && !table.containsKey(string)) {
+                table.put(string, strings.size());
+                strings.add(string);
+            }
+        }
+        Output output = new Output();
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+        output.writeLong(hash);
+        output.writeVarint(strings.size());
+        for (String string : strings) {
+            output.writeBytes(string.getBytes(StandardCharsets.UTF_8));
+        }
+        stack.push(ast);
+        while (!stack.isEmpty()) {
+            Ast node = stack.pop();
+            if (node instanceof Ast.Term) {
+                List<Ast> args = ((Ast.Term) node).getArgs();
+                output.writeByte(TERM);
+                output.writeVarint(table.get(((Ast.Term) node).getName()));
+                output.writeVarint(args.size());
+                for (int i = args.size() - 1; i >= 0; i--) {
+                    stack.push(args.get(i));
+                }
+            } else if (node instanceof Ast.Identifier) {
+                output.writeByte(IDENTIFIER);
+                output.writeVarint(table.get(((Ast.Identifier) node).getName()));
+            } else if (node instanceof Ast.NumberLiteral) {
+                BigDecimal value = ((Ast.NumberLiteral) node).getValue();
+                BigInteger unscaled = value.unscaledValue();
+                if (unscaled.bitLength() < 64) {
+                    output.writeByte(SMALL_NUMBER);
+                    output.writeVarint(zigzag(value.scale()));
+                    output.writeVarint(zigzag(unscaled.longValue()));
+                } else {
+                    output.writeByte(BIG_NUMBER);
+                    output.writeVarint(zigzag(value.scale()));
+                    output.writeBytes(unscaled.toByteArray());
+                }
+            } else if (node instanceof Ast.StringLiteral) {
+                output.writeByte(STRING);
+                output.writeVarint(table.get(((Ast.StringLiteral) node).getValue()));
+            } else {
+                throw new AssertionError(node.getClass());
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Decodes an AST from the buffer, returning null if the buffer isn't in
+     * this format (or is a different version) or was compiled from a source
+     * with a different hash. Throws an {@link IllegalStateException} if the
+     * header matches but the rest of the buffer is truncated or corrupt.
+     */
+    public static Ast decode(ByteBuffer bytes, long hash) {
+        Input input = new Input(bytes);
+        if (bytes.remaining() < 13 || input.readInt() != MAGIC || input.readByte() != VERSION || input.readLong() != hash) {
+            return null;
+        }
+        try {
+            return decode(input);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalStateException("Corrupt compiled script at byte " + bytes.position() + ".", e);
+        }
+    }
+
+    private static Ast decode(Input input) {
+        String[] strings = new String[input.readCount()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = new String(input.readBytes(), StandardCharsets.UTF_8);
+        }
+        //Terms whose arguments are still being decoded, innermost first.
+        ArrayDeque<TermFrame> terms = new ArrayDeque<>();
+        while (true) {
+            Ast node;
+            byte tag = input.readByte();
+            if (tag == TERM) {
+                String name = strings[(int) input.readVarint()];
+                int count = input.readCount();
+                if (count > 0) {
+                    terms.push(new TermFrame(name, count));
+                    continue;
+                }
+                node = new Ast.Term(name, new ArrayList<>());
+            } else if (tag == IDENTIFIER) {
+                node = new Ast.Identifier(strings[(int) input.readVarint()]);
+            } else if (tag == SMALL_NUMBER) {
+                int scale = (int) unzigzag(input.readVarint());
+                node = new Ast.NumberLiteral(BigDecimal.valueOf(unzigzag(input.readVarint()), scale));
+            } else if (tag == BIG_NUMBER) {
+                int scale = (int) unzigzag(input.readVarint());
+                node = new Ast.NumberLiteral(new BigDecimal(new BigInteger(input.readBytes()), scale));
+            } else if (tag == STRING) {
+                node = new Ast.StringLiteral(strings[(int) input.readVarint()]);
+            } else {
+                throw new IllegalStateException("Unknown tag " + tag + " at byte " + (input.bytes.position() - 1) + ".");
+            }
+            while (!terms.isEmpty()) {
+                TermFrame frame = terms.peek();
+                frame.args.add(node);
+                if (frame.args.size() < frame.count) {
+                    break;
+                }
+                terms.pop();
+                node = new Ast.Term(frame.name, frame.args);
+            }
+            if (terms.isEmpty()) {
+                return node;
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A term whose arguments are still being decoded.
+     */
+    private static final class TermFrame {
+
+        private final String name;
+        private final int count;
+        private final List<Ast> args;
+
+        private TermFrame(String name, int count) {
+            this.name = name;
+            this.count = count;
+            this.args = new ArrayList<>(count);
+        }
+
+    }
+
+    private static final class Output {
+
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+
+        private void writeByte(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(value >>> shift);
+            }
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        /**
+         * Writes the length of the bytes as a varint, followed by the bytes.
+         */
+        private void writeBytes(byte[] value) {
+            writeVarint(value.length);
+            for (byte b : value) {
+                writeByte(b);
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+    }
+
+    private static final class Input {
+
+        private final ByteBuffer bytes;
+
+        private Input(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        private byte readByte() {
+            return bytes.get();
+        }
+
+        private int readInt() {
+            return bytes.getInt();
+        }
+
+        private long readLong() {
+            return bytes.getLong();
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        /**
+         * Reads the number of elements (or bytes) that follow, each of which
+         * takes at least a byte, so a corrupt count can't allocate more than
+         * the buffer holds.
+         */
+        private int readCount() {
+            long count = readVarint();
+            if (count < 0 || count > bytes.remaining()) {
+                throw new IllegalStateException("Invalid count " + count + " at byte " + bytes.position() + ".");
+            }
+            return (int) count;
+        }
+
+        private byte[] readBytes() {
+            byte[] value = new byte[readCount()];
+            bytes.get(value);
+            return value;
+        }
+
+    }
+
+}
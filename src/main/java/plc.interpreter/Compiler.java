@@ -0,0 +1,266 @@
+package plc.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles an {@link Ast} to {@link Bytecode}.
+ *
+ * Every term is compiled as a call, which evaluates it's arguments only if the
+ * function takes their values ({@link Bytecode#FUNCTION}), except for the
+ * builtin forms {@code do}, {@code while}, {@code for}, {@code and}, {@code
+ * or}, {@code define} and {@code set!}, which are compiled to jumps and scope
+ * instructions behind a {@link Bytecode#GUARD}. Forms with arguments the
+ * builtin would reject are compiled as calls, so the builtin reports the
+ * error. Function definitions are left to the {@code define} builtin, and the
+ * body of each function is compiled the first time it's called.
+ */
+final class Compiler {
+
+    private int[] code = new int[32];
+    private int size;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> indices = new IdentityHashMap<>();
+    private final List<Integer> wraps = new ArrayList<>();
+
+    private Compiler() {}
+
+    static Bytecode compile(Ast ast) {
+        Compiler compiler = new Compiler();
+        compiler.compileExpression(ast);
+        compiler.emit(Bytecode.RETURN);
+        return new Bytecode(
+                Arrays.copyOf(compiler.code, compiler.size),
+                compiler.constants.toArray(),
+                compiler.wraps.stream().mapToInt(Integer::intValue).toArray()
+        );
+    }
+
+    /**
+     * Compiles the AST to code which pushes it's value.
+     */
+    private void compileExpression(Ast ast) {
+        if (ast instanceof Ast.Term) {
+            compileTerm((Ast.Term) ast);
+        } else if (ast instanceof Ast.Identifier) {
+            emit(Bytecode.LOAD, constant(ast));
+        } else {
+            emit(Bytecode.CONST, constant(value(ast)));
+        }
+    }
+
+    /**
+     * Returns the value of a literal.
+     */
+    private static Object value(Ast ast) {
+        if (ast instanceof Ast.NumberLiteral) {
+            return ((Ast.NumberLiteral) ast).getValue();
+        } else if (ast instanceof Ast.StringLiteral) {
+            return ((Ast.StringLiteral) ast).getValue();
+        } else {
+            throw new AssertionError(ast.getClass());
+        }
+    }
+
+    private void compileTerm(Ast.Term term) {
+        List<Ast> args = term.getArgs();
+        switch (term.getName()) {
+            case "do":
+                compileDo(term);
+                return;
+            case "while":
+                if (!args.isEmpty()) {
+                    compileWhile(term);
+                    return;
+                }
+                break;
+            case "for":
+                if (args.size() >= 2 && args.get(0) instanceof Ast.Term && ((Ast.Term) args.get(0)).getArgs().size() == 1) {
+                    compileFor(term);
+                    return;
+                }
+                break;
+            case "and":
+            case "or":
+                compileLogical(term);
+                return;
+            case "define":
+            case "set!":
+                if (args.size() == 2 && args.get(0) instanceof Ast.Identifier) {
+                    compileAssignment(term);
+                    return;
+                }
+                break;
+        }
+        if (args.stream().allMatch(arg -> !(arg instanceof Ast.Term))) {
+            Object[] leaves = new Object[args.size()];
+            for (int i = 0; i < leaves.length; i++) {
+                leaves[i] = args.get(i) instanceof Ast.Identifier ? args.get(i) : value(args.get(i));
+            }
+            emit(Bytecode.INVOKE, constant(term), constant(leaves));
+            return;
+        }
+        int end = emitJump(Bytecode.FUNCTION, constant(term));
+        for (Ast arg : args) {
+            compileExpression(arg);
+        }
+        emit(Bytecode.CALL, args.size());
+        patch(end);
+    }
+
+    private void compileDo(Ast.Term term) {
+        int end = emitGuard(term);
+        int start = size;
+        emit(Bytecode.ENTER, constant(term));
+        if (term.getArgs().isEmpty()) {
+            emit(Bytecode.CONST, constant(Interpreter.VOID));
+        }
+        for (int i = 0; i < term.getArgs().size(); i++) {
+            if (i > 0) {
+                emit(Bytecode.POP);
+            }
+            compileExpression(term.getArgs().get(i));
+        }
+        emit(Bytecode.EXIT, constant(term));
+        wrap(start);
+        patch(end);
+    }
+
+    private void compileWhile(Ast.Term term) {
+        List<Ast> args = term.getArgs();
+        int end = emitGuard(term);
+        emit(Bytecode.ENTER, constant(term));
+        int loop = size;
+        compileExpression(args.get(0));
+        int exit = emitJump(Bytecode.JUMP_FALSE);
+        compileStatements(args.subList(1, args.size()));
+        emit(Bytecode.JUMP, loop);
+        patch(exit);
+        emit(Bytecode.EXIT, constant(term));
+        emit(Bytecode.CONST, constant(Interpreter.VOID));
+        patch(end);
+    }
+
+    private void compileFor(Ast.Term term) {
+        List<Ast> args = term.getArgs();
+        Ast.Term variable = (Ast.Term) args.get(0);
+        int end = emitGuard(term);
+        int start = size;
+        compileExpression(variable.getArgs().get(0));
+        emit(Bytecode.ITER);
+        emit(Bytecode.ENTER, constant(term));
+        emit(Bytecode.CONST, constant(Interpreter.VOID));
+        emit(Bytecode.DEFINE, constant(variable.getSymbol()));
+        emit(Bytecode.POP);
+        int loop = size;
+        int exit = emitJump(Bytecode.NEXT, constant(variable.getSymbol()));
+        compileStatements(args.subList(1, args.size()));
+        emit(Bytecode.JUMP, loop);
+        patch(exit);
+        emit(Bytecode.EXIT, constant(term));
+        emit(Bytecode.CONST, constant(Interpreter.VOID));
+        wrap(start);
+        patch(end);
+    }
+
+    /**
+     * Compiles {@code and} and {@code or}, which stop at the first argument
+     * that is false (or true, respectively) and otherwise return the opposite
+     * value.
+     */
+    private void compileLogical(Ast.Term term) {
+        boolean and = term.getName().equals("and");
+        int end = emitGuard(term);
+        int start = size;
+        List<Integer> shortCircuits = new ArrayList<>();
+        for (Ast arg : term.getArgs()) {
+            compileExpression(arg);
+            shortCircuits.add(emitJump(and ? Bytecode.JUMP_FALSE : Bytecode.JUMP_TRUE));
+        }
+        emit(Bytecode.CONST, constant(and));
+        int done = emitJump(Bytecode.JUMP);
+        shortCircuits.forEach(this::patch);
+        emit(Bytecode.CONST, constant(!and));
+        patch(done);
+        if (and) {
+            wrap(start);
+        }
+        patch(end);
+    }
+
+    private void compileAssignment(Ast.Term term) {
+        boolean define = term.getName().equals("define");
+        int end = emitGuard(term);
+        int start = size;
+        compileExpression(term.getArgs().get(1));
+        emit(define ? Bytecode.DEFINE : Bytecode.SET, constant(((Ast.Identifier) term.getArgs().get(0)).getSymbol()));
+        if (define) {
+            wrap(start);
+        }
+        patch(end);
+    }
+
+    /**
+     * Compiles the body of a loop, whose values are discarded.
+     */
+    private void compileStatements(List<Ast> statements) {
+        for (Ast statement : statements) {
+            compileExpression(statement);
+            emit(Bytecode.POP);
+        }
+    }
+
+    private int emitGuard(Ast.Term term) {
+        return emitJump(Bytecode.GUARD, constant(term), constant(term.getName().intern()));
+    }
+
+    /**
+     * Emits an instruction whose last operand is a jump target, returning the
+     * position of the target so it can be patched once it's known.
+     */
+    private int emitJump(int op, int... operands) {
+        emit(op);
+        for (int operand : operands) {
+            emit(operand);
+        }
+        emit(-1);
+        return size - 1;
+    }
+
+    /**
+     * Sets the target of the jump at the given position to the current
+     * position.
+     */
+    private void patch(int jump) {
+        code[jump] = size;
+    }
+
+    /**
+     * Records that the code from the given position to the current position
+     * converts exceptions to {@link EvalException}s.
+     */
+    private void wrap(int start) {
+        wraps.add(start);
+        wraps.add(size);
+    }
+
+    private void emit(int... values) {
+        for (int value : values) {
+            if (size == code.length) {
+                code = Arrays.copyOf(code, 2 * size);
+            }
+            code[size++] = value;
+        }
+    }
+
+    private int constant(Object value) {
+        return indices.computeIfAbsent(value, v -> {
+            constants.add(v);
+            return constants.size() - 1;
+        });
+    }
+
+}
@@ -0,0 +1,179 @@
+package plc.interpreter;
+
+import java.util.LinkedList;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The numeric builtins of an interpreter in fast-math mode, which is enabled
+ * through {@link Interpreter#Interpreter(java.io.PrintWriter, Scope,
+ * Interpreter.Engine, boolean)}. Number literals evaluate to {@link Double}s
+ * instead of {@link java.math.BigDecimal}s, and the arithmetic and comparison
+ * builtins, {@code range} and the math builtins {@code sqrt}, {@code exp},
+ * {@code log}, {@code pow} and {@code floor} (which are only defined in this
+ * mode) compute with primitive doubles, boxing only their result. They accept
+ * any {@link Number}, so values defined by Java callers can still be used.
+ *
+ * The accuracy contract is that of IEEE 754 double precision:
+ *
+ * <ul>
+ *     <li>Literals are rounded to the nearest double, so integers are exact
+ *     up to 2^53 but a decimal like {@code 0.1} generally isn't.</li>
+ *     <li>{@code +}, {@code -}, {@code *}, {@code /} and {@code sqrt} are
+ *     correctly rounded (within half an ulp) for each pair of operands. With
+ *     more arguments they are applied from left to right, so rounding errors
+ *     accumulate, unlike the exact builtins.</li>
+ *     <li>{@code exp}, {@code log} and {@code pow} are within one ulp of the
+ *     exact result, as specified by {@link Math}, and may differ by that much
+ *     between platforms. {@code floor} is exact.</li>
+ *     <li>Nothing overflows or divides by zero: the results are infinities
+ *     and NaN as IEEE 754 specifies, rather than errors. Comparisons with NaN
+ *     are false, and {@code -0.0} compares equal to {@code 0.0}, although
+ *     {@code equals?} (which uses {@link Double#equals(Object)}) tells them
+ *     apart and considers NaN equal to itself.</li>
+ *     <li>Numbers print as Java doubles, so {@code (+ 1 2)} prints {@code
+ *     3.0}.</li>
+ * </ul>
+ */
+final class FastMath {
+
+    private FastMath() {}
+
+    /**
+     * A comparison of two doubles, as done by the comparison builtins.
+     */
+    @FunctionalInterface
+    interface Comparison {
+
+        boolean test(double first, double second);
+
+    }
+
+    static Object add(Object[] args) {
+        double result = 0;
+        for (Object arg : args) {
+            result += value(arg);
+        }
+        return result;
+    }
+
+    static Object subtract(Object[] args) {
+        if (args.length == 0) {
+            throw new EvalException("Expected at least one argument.");
+        } else if (args.length == 1) {
+            return -value(args[0]);
+        }
+        double result = value(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            result -= value(args[i]);
+        }
+        return result;
+    }
+
+    static Object multiply(Object[] args) {
+        double result = 1;
+        for (Object arg : args) {
+            result *= value(arg);
+        }
+        return result;
+    }
+
+    static Object divide(Object[] args) {
+        if (args.length == 0) {
+            throw new EvalException("Expected at least one argument.");
+        } else if (args.length == 1) {
+            return 1 / value(args[0]);
+        }
+        double result = value(args[0]);
+        for (int i = 1; i < args.length; i++) {
+            result /= value(args[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether every argument is a number, in which case they are
+     * compared by {@link #compare(Object[], Comparison)}.
+     */
+    static boolean isNumbers(Object[] args) {
+        for (Object arg : args) {
+            if (!(arg instanceof Number)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean compare(Object[] args, Comparison comparison) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (!comparison.test(value(args[i]), value(args[i + 1]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the list of integers from the first bound (inclusive) to the
+     * second (exclusive), as doubles.
+     */
+    static Object range(Object[] args) {
+        if (args.length != 2) {
+            throw new EvalException(args.length > 2 ? "too many arguments for range." : "too little arguments for range");
+        }
+        double first = value(args[0]), second = value(args[1]);
+        if (!isInteger(first) || !isInteger(second)) {
+            throw new EvalException("received a decimal, was expecting integer value for bounds.");
+        } else if (second < first) {
+            throw new EvalException("second bound is smaller than first.");
+        }
+        LinkedList<Double> list = new LinkedList<>();
+        for (long i = (long) first; i < (long) second; i++) {
+            list.add((double) i);
+        }
+        return list;
+    }
+
+    static Object sqrt(Object[] args) {
+        return unary("sqrt", args, Math::sqrt);
+    }
+
+    static Object exp(Object[] args) {
+        return unary("exp", args, Math::exp);
+    }
+
+    static Object log(Object[] args) {
+        return unary("log", args, Math::log);
+    }
+
+    static Object floor(Object[] args) {
+        return unary("floor", args, Math::floor);
+    }
+
+    static Object pow(Object[] args) {
+        return binary("pow", args, Math::pow);
+    }
+
+    private static Object unary(String name, Object[] args, DoubleUnaryOperator operator) {
+        if (args.length != 1) {
+            throw new EvalException("Expected 1 argument for " + name + ", received " + args.length + ".");
+        }
+        return operator.applyAsDouble(value(args[0]));
+    }
+
+    private static Object binary(String name, Object[] args, DoubleBinaryOperator operator) {
+        if (args.length != 2) {
+            throw new EvalException("Expected 2 arguments for " + name + ", received " + args.length + ".");
+        }
+        return operator.applyAsDouble(value(args[0]), value(args[1]));
+    }
+
+    private static boolean isInteger(double value) {
+        return !Double.isInfinite(value) && Math.floor(value) == value;
+    }
+
+    private static double value(Object arg) {
+        return Interpreter.requireType(Number.class, arg).doubleValue();
+    }
+
+}
@@ -0,0 +1,25 @@
+package plc.interpreter;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A builtin special form, such as {@code do}, which is given the term it was
+ * called from rather than just the arguments so it can use the {@link Layout}
+ * assigned to the term by the {@link Resolver}.
+ */
+@FunctionalInterface
+interface Form extends Function<List<Ast>, Object> {
+
+    Object apply(Ast.Term term);
+
+    /**
+     * Applies the form to arguments without a term, such as when it has been
+     * looked up and called directly, in which case nothing is resolved.
+     */
+    @Override
+    default Object apply(List<Ast> args) {
+        return apply(new Ast.Term("", args));
+    }
+
+}
@@ -0,0 +1,158 @@
+package plc.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maintains the AST of a source that is edited over time, such as a buffer in
+ * an editor, without re-parsing the entire source after every edit.
+ *
+ * The source is divided into segments at the end of each top-level form (see
+ * {@link Parser#scanForm(CharSequence, int)}), and the forms of each segment
+ * are kept between edits. After an edit, only the segments from the one
+ * containing the edit up to the first unchanged segment boundary are re-lexed
+ * and re-parsed; the forms of every other segment are reused as is. The
+ * resulting AST is always equal to {@code Parser.parse(source)}.
+ */
+public final class IncrementalParser {
+
+    private final StringBuilder source;
+
+    /**
+     * The end index of each segment, where the last end is always the end of
+     * the source, and the top-level forms of each segment. Both are null if the
+     * source failed to parse, in which case it is parsed from scratch.
+     */
+    private int[] ends;
+    private List<List<Ast>> forms;
+    private Ast ast;
+
+    public IncrementalParser(CharSequence source) {
+        this.source = new StringBuilder(source);
+    }
+
+    public String getSource() {
+        return source.toString();
+    }
+
+    /**
+     * Returns the AST of the current source, throwing a {@link ParseException}
+     * if the source is invalid.
+     */
+    public Ast parse() {
+        if (ast == null) {
+            reparse();
+        }
+        return ast;
+    }
+
+    /**
+     * Replaces {@code removed} characters of the source at {@code offset} with
+     * the inserted text and returns the updated AST, throwing a {@link
+     * ParseException} if the edited source is invalid.
+     */
+    public Ast edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > source.length()) {
+            throw new IndexOutOfBoundsException("Edit [" + offset + ", " + (offset + removed) + ") out of bounds for length " + source.length() + ".");
+        }
+        source.replace(offset, offset + removed, inserted);
+        ast = null;
+        if (ends == null) {
+            return parse();
+        }
+        int delta = inserted.length() - removed;
+        int first = 0;
+        while (first < ends.length - 1 && ends[first] <= offset) {
+            first++;
+        }
+        List<Integer> newEnds = new ArrayList<>();
+        List<List<Ast>> newForms = new ArrayList<>();
+        int start = first == 0 ? 0 : ends[first - 1];
+        int reused = first;
+        while (true) {
+            int end = Parser.scanForm(source, start);
+            if (end < 0) {
+                return fail();
+            }
+            try {
+                newForms.add(Parser.parseForms(source, start, end));
+            } catch (ParseException e) {
+                return fail();
+            }
+            newEnds.add(end);
+            start = end;
+            if (end == source.length()) {
+                reused = ends.length;
+                break;
+            } else if (end >= offset + inserted.length()) {
+                //Past the edit, so everything after a boundary that was also
+                //a boundary before the edit is unchanged.
+                while (reused < ends.length && ends[reused] < end - delta) {
+                    reused++;
+                }
+                if (reused < ends.length && ends[reused] == end - delta) {
+                    reused++;
+                    break;
+                }
+            }
+        }
+        int[] updated = Arrays.copyOf(ends, first + newEnds.size() + ends.length - reused);
+        for (int i = 0; i < newEnds.size(); i++) {
+            updated[first + i] = newEnds.get(i);
+        }
+        for (int i = reused; i < ends.length; i++) {
+            updated[first + newEnds.size() + i - reused] = ends[i] + delta;
+        }
+        List<List<Ast>> segments = new ArrayList<>(updated.length);
+        segments.addAll(forms.subList(0, first));
+        segments.addAll(newForms);
+        segments.addAll(forms.subList(reused, forms.size()));
+        ends = updated;
+        forms = segments;
+        return parse();
+    }
+
+    /**
+     * Parses the source from scratch, or builds the AST from the segments if
+     * they are already parsed.
+     */
+    private void reparse() {
+        if (ends == null) {
+            List<Integer> scanned = new ArrayList<>();
+            List<List<Ast>> segments = new ArrayList<>();
+            int start = 0;
+            do {
+                int end = Parser.scanForm(source, start);
+                if (end < 0) {
+                    fail();
+                    return;
+                }
+                try {
+                    segments.add(Parser.parseForms(source, start, end));
+                } catch (ParseException e) {
+                    fail();
+                    return;
+                }
+                scanned.add(end);
+                start = end;
+            } while (start < source.length());
+            ends = scanned.stream().mapToInt(Integer::intValue).toArray();
+            forms = segments;
+        }
+        List<Ast> args = new ArrayList<>();
+        forms.forEach(args::addAll);
+        ast = new Ast.Term("source", args);
+    }
+
+    /**
+     * Discards the segments and parses the source sequentially, which throws
+     * the same {@link ParseException} as {@link Parser#parse(CharSequence)}.
+     */
+    private Ast fail() {
+        ends = null;
+        forms = null;
+        return ast = Parser.parse(source);
+    }
+
+}
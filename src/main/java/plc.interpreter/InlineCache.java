@@ -0,0 +1,86 @@
+package plc.interpreter;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A monomorphic inline cache for the function called by an {@link Ast.Term},
+ * so that repeated calls from the same call site skip both the lookup of the
+ * function and the check that it is a {@link Function}.
+ *
+ * The cache holds the {@link Cell} of the binding that was found, along with
+ * the guards it is valid under: the lookup must start from the same scope,
+ * the symbol's version must be unchanged (so no new binding could shadow the
+ * cell), and the cell must still contain the same function (so {@code set!}
+ * hasn't rebound the name). If any guard fails the cache misses, and the call
+ * site is re-linked to whatever the lookup finds.
+ *
+ * The scope is only held weakly, so that a call site doesn't keep the last
+ * frame or block scope it was called from alive (along with the values in
+ * it's slots). The cell can't be keyed on anything smaller, since scopes with
+ * the same layout can still have parents which bind the name differently. A
+ * scope that has been collected can't start another lookup, so the entry just
+ * misses from then on.
+ *
+ * ASTs can be shared between interpreters on different threads, so the cell
+ * and it's guards are kept in an immutable {@link Entry} which is replaced
+ * with a single volatile write. A thread always sees a complete entry, and
+ * at worst one interpreter re-links the call site after another. The hit and
+ * miss counts are only statistics, so they are left unsynchronized (which
+ * keeps the hit path free of atomic updates) and may undercount when threads
+ * race.
+ */
+final class InlineCache {
+
+    private static final class Entry {
+
+        private final WeakReference<Scope> scope;
+        private final int version;
+        private final Cell cell;
+        private final Function<List<Ast>, Object> function;
+
+        private Entry(Scope scope, int version, Cell cell, Function<List<Ast>, Object> function) {
+            this.scope = new WeakReference<>(scope);
+            this.version = version;
+            this.cell = cell;
+            this.function = function;
+        }
+
+    }
+
+    private volatile Entry entry;
+    private long hits;
+    private long misses;
+
+    /**
+     * Returns the cached function if the guards hold, otherwise null.
+     */
+    Function<List<Ast>, Object> get(Scope scope, int version) {
+        Entry entry = this.entry;
+        if (entry != null && entry.version == version && entry.scope.get() == scope && entry.cell.value == entry.function) {
+            hits++;
+            return entry.function;
+        }
+        misses++;
+        return null;
+    }
+
+    void link(Scope scope, int version, Cell cell, Function<List<Ast>, Object> function) {
+        entry = new Entry(scope, version, cell, function);
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return "InlineCache{hits=" + hits + ", misses=" + misses + "}";
+    }
+
+}
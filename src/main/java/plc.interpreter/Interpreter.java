@@ -2,14 +2,19 @@ package plc.interpreter;
 
 import com.sun.corba.se.spi.ior.ObjectKey;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 public final class Interpreter {
@@ -28,20 +33,260 @@ public final class Interpreter {
 
     };
 
+    /**
+     * Selects how ASTs are executed. {@link #TREE} walks the AST directly,
+     * {@link #NODES} compiles each top-level form and function body to a tree
+     * of self-specializing {@link Node}s, {@link #BYTECODE} compiles them to
+     * {@link Bytecode} which is run by the {@link Machine}, and {@link
+     * #CLOSURES} compiles each AST to a {@link Closure} cached on it. {@link
+     * #JVM} walks the AST like {@link #TREE}, but compiles the body of each
+     * function created by {@code define} to a JVM class once it has been
+     * called {@link #setCompileThreshold(int) often enough}. {@link #CEK}
+     * evaluates the AST iteratively with the {@link CekMachine}, which keeps
+     * it's continuations in arrays instead of on the Java stack, so deep
+     * recursion doesn't overflow it. All of them produce the same results.
+     */
+    public enum Engine {
+        TREE,
+        NODES,
+        BYTECODE,
+        CLOSURES,
+        JVM,
+        CEK
+    }
+
     public final PrintWriter out;
     public Scope scope;
+    private final Engine engine;
+    private final boolean fastMath;
+    private final JvmCompiler jvm;
+    private final CekMachine cek;
+    private int maxDepth = 1_000_000;
+
+    /**
+     * The node trees of the functions run by the {@link Engine#NODES} engine,
+     * which specialize themselves to this interpreter's bindings.
+     */
+    private final Map<Layout, Node.Root> nodes = new IdentityHashMap<>();
 
     public Interpreter(PrintWriter out, Scope scope) {
+        this(out, scope, Engine.TREE);
+    }
+
+    public Interpreter(PrintWriter out, Scope scope, Engine engine) {
+        this(out, scope, engine, false);
+    }
+
+    /**
+     * Creates an interpreter which may be in fast-math mode, in which numbers
+     * are doubles rather than exact decimals. See {@link FastMath} for the
+     * builtins this changes and the accuracy they guarantee.
+     */
+    public Interpreter(PrintWriter out, Scope scope, Engine engine, boolean fastMath) {
         this.out = out;
         this.scope = scope;
+        this.engine = engine;
+        this.fastMath = fastMath;
+        this.jvm = engine == Engine.JVM ? new JvmCompiler(fastMath) : null;
+        this.cek = engine == Engine.CEK ? new CekMachine(this) : null;
         init(scope);
     }
 
+    public boolean isFastMath() {
+        return fastMath;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Sets the number of calls after which the {@link Engine#JVM} engine
+     * compiles a function (1000 by default). A threshold of 0 compiles every
+     * function on it's first call, and a negative threshold never compiles
+     * anything, so every function is walked (which is useful for debugging).
+     * Other engines ignore the threshold.
+     */
+    public void setCompileThreshold(int threshold) {
+        if (jvm != null) {
+            jvm.setThreshold(threshold);
+        }
+    }
+
+    /**
+     * Sets the maximum number of calls (1,000,000 by default) the {@link
+     * Engine#BYTECODE} and {@link Engine#CEK} engines keep on their own
+     * stacks, which live on the heap rather than the Java stack. Going deeper
+     * throws an {@link EvalException}, so runaway recursion fails the
+     * evaluation instead of exhausting the heap. Other engines are limited by
+     * the Java stack instead.
+     */
+    public void setMaxDepth(int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("Expected a positive depth, received " + depth + ".");
+        }
+        maxDepth = depth;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Returns the compiler of the {@link Engine#JVM} engine, or null if the
+     * interpreter uses another engine.
+     */
+    JvmCompiler getJvmCompiler() {
+        return jvm;
+    }
+
+    /**
+     * Parses and evaluates each top-level form of the input in turn, returning
+     * the result of the last form (or {@link #VOID} if there are none).
+     *
+     * Forms are evaluated as soon as they are parsed, so output starts before
+     * the rest of the input is parsed and each form can be garbage collected
+     * once it has been evaluated. As a consequence, any forms before a syntax
+     * error will have already been evaluated when the {@link ParseException}
+     * is thrown.
+     */
+    public Object run(CharSequence input) {
+        Object result = VOID;
+        Iterator<Ast> forms = Parser.forms(input);
+        while (forms.hasNext()) {
+            result = eval(forms.next());
+        }
+        return result;
+    }
+
+    /**
+     * Runs the file at the given path as in {@link #run(CharSequence)}, which
+     * is memory-mapped by {@link Source#map(Path)}.
+     */
+    public Object run(Path path) throws IOException {
+        return run(Source.map(path));
+    }
+
+    /**
+     * Evaluates each top-level form of an arena with a {@code source} root, as
+     * from {@link AstArena#parse(CharSequence)}, returning the result of the
+     * last form.
+     */
+    public Object run(AstArena arena) {
+        Object result = VOID;
+        int root = arena.getRoot();
+        for (int i = 0; i < arena.getArgCount(root); i++) {
+            result = eval(arena, arena.getArg(root, i));
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates the node at the given offset of an arena, walking the arena
+     * directly as far as possible: atoms and calls of builtins that take the
+     * values of their arguments (and of functions created by {@code define})
+     * are evaluated without creating any {@link Ast}s. Forms and other
+     * functions are given the term, so only their subtree is materialized and
+     * evaluated with the interpreter's {@link Engine}.
+     */
+    public Object eval(AstArena arena, int node) {
+        switch (arena.getKind(node)) {
+            case IDENTIFIER:
+                return scope.lookup(arena.getSymbol(node));
+            case NUMBER:
+                BigDecimal value = arena.getNumber(node);
+                return fastMath ? (Object) value.doubleValue() : value;
+            case STRING:
+                return arena.getString(node);
+            default:
+                Object function = scope.lookup(arena.getSymbol(node));
+                if (function instanceof Builtin && ((Builtin) function).isStrict()) {
+                    Builtin builtin = (Builtin) function;
+                    return builtin.call(builtin.wrapsArguments() ? wrapped(arena, node) : values(arena, node));
+                } else if (function instanceof Lambda) {
+                    return ((Lambda) function).call(values(arena, node));
+                }
+                return eval(arena.materialize(node));
+        }
+    }
+
+    private Object[] values(AstArena arena, int node) {
+        Object[] values = new Object[arena.getArgCount(node)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = eval(arena, arena.getArg(node, i));
+        }
+        return values;
+    }
+
+    private Object[] wrapped(AstArena arena, int node) {
+        try {
+            return values(arena, node);
+        } catch (Exception e) {
+            throw new EvalException(e.getMessage());
+        }
+    }
+
+    /**
+     * Evaluates the AST with the interpreter's {@link Engine}.
+     */
+    public Object eval(Ast ast) {
+        if (engine == Engine.NODES) {
+            return Node.root(ast).execute(this);
+        } else if (engine == Engine.BYTECODE) {
+            return Machine.run(this, Compiler.compile(ast));
+        } else if (engine == Engine.CLOSURES) {
+            return ClosureCompiler.compile(ast).evaluate(this);
+        } else if (engine == Engine.CEK) {
+            return cek.run(ast);
+        }
+        return walk(ast);
+    }
+
+    /**
+     * Returns a listing of the {@link Bytecode} the AST is compiled to by the
+     * {@link Engine#BYTECODE} engine, for debugging. Function bodies are
+     * compiled separately, when they are first called.
+     */
+    public static String disassemble(Ast ast) {
+        return Compiler.compile(ast).disassemble();
+    }
+
+    /**
+     * Evaluates the body of a function with the interpreter's {@link Engine},
+     * in the given frame. The compiled body is cached on the layout, so it is
+     * only compiled once per definition. Node trees rewrite themselves as they
+     * run, so they are cached by the interpreter instead.
+     * Bodies compiled by the {@link Engine#JVM} engine are called by the
+     * {@link Lambda} without a frame, so they never get here.
+     *
+     * The body is evaluated in tail position, so it may return a {@link
+     * TailCall} for the {@link Lambda} to make (the {@link Machine} and the
+     * {@link CekMachine} make calls without growing the Java stack anyway).
+     */
+    Object invoke(Layout layout, Scope frame) {
+        Scope current = scope;
+        scope = frame;
+        try {
+            if (engine == Engine.NODES) {
+                return nodes.computeIfAbsent(layout, l -> Node.root(l.getBody())).executeTail(this);
+            } else if (engine == Engine.BYTECODE) {
+                return Machine.run(this, layout.getBytecode());
+            } else if (engine == Engine.CLOSURES) {
+                return layout.getClosure().evaluate(this);
+            } else if (engine == Engine.CEK) {
+                return cek.run(layout.getBody());
+            }
+            return tail(layout.getBody());
+        } finally {
+            scope = current;
+        }
+    }
+
     /**
      * Delegates evaluation to the method for the specific instance of AST. This
      * is another approach to implementing the visitor pattern.
      */
-    public Object eval(Ast ast) {
+    Object walk(Ast ast) {
         if (ast instanceof Ast.Term) {
             return eval((Ast.Term) ast);
         } else if (ast instanceof Ast.Identifier) {
@@ -62,32 +307,154 @@ public final class Interpreter {
      * to the type {@code Function<List<Ast>, Object>}.
      */
     private Object eval(Ast.Term ast) {
-        Object obj = scope.lookup(ast.getName());
-
-        Function<List<Ast>, Object> function = requireType(  Function.class,  obj);
-        return function.apply(ast.getArgs());
+        return apply(lookup(ast), ast);
 
 
         //throw new UnsupportedOperationException(); //TODO
     }
 
+    /**
+     * Evaluates an AST in tail position, where a call of a function created by
+     * {@code define} (in this interpreter) is returned as a {@link TailCall}
+     * with the values of it's arguments rather than made. The last form of a
+     * {@code do} is also in tail position.
+     */
+    Object tail(Ast ast) {
+        if (!(ast instanceof Ast.Term)) {
+            return walk(ast);
+        }
+        Ast.Term term = (Ast.Term) ast;
+        Function<List<Ast>, Object> function = lookup(term);
+        if (function instanceof Lambda && ((Lambda) function).getInterpreter() == this) {
+            Object[] values = new Object[term.getArgs().size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = walk(term.getArgs().get(i));
+            }
+            return new TailCall((Lambda) function, values, false);
+        } else if (function instanceof Builtin && ((Builtin) function).getName().equals("do")) {
+            return block(term, true);
+        }
+        return apply(function, term);
+    }
+
+    /**
+     * Calls the function with the arguments of the term, which is given the
+     * term itself if it is a {@link Form}.
+     */
+    Object apply(Function<List<Ast>, Object> function, Ast.Term ast) {
+        if (function instanceof Form) {
+            return ((Form) function).apply(ast);
+        }
+        return function.apply(ast.getArgs());
+    }
+
     /**
      * Evaluates the Identifier ast, which returns the value stored under the
      * identifier's name in the current scope.
      */
     private Object eval(Ast.Identifier ast) {
-        return scope.lookup(ast.getName());
+        return lookup(ast.address, ast.getSymbol());
         //throw new UnsupportedOperationException(); //TODO
     }
 
+    /**
+     * Returns the scope for a block term to evaluate it's arguments in, which
+     * uses the layout from the {@link Resolver} if the block is in a function
+     * body. Blocks in a function body that don't define anything use the
+     * current scope.
+     */
+    Scope block(Ast.Term term) {
+        if (term.layout == null) {
+            return new Scope(scope);
+        } else if (term.layout == Resolver.EMPTY) {
+            return scope;
+        } else {
+            return new Scope(scope, term.layout, new Object[term.layout.size()]);
+        }
+    }
+
+    /**
+     * Looks up a variable by the address assigned by the {@link Resolver} if
+     * it has one, falling back to looking up the symbol in the current scope.
+     */
+    Object lookup(Address address, Symbol symbol) {
+        if (address != null) {
+            Scope resolved = scope.resolve(address);
+            if (resolved != null) {
+                if (address.isFree()) {
+                    return resolved.getParent().lookup(symbol);
+                }
+                Object value = resolved.get(address.slot);
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        return scope.lookup(symbol);
+    }
+
+    /**
+     * Looks up the function called by a term, as with {@link #lookup(Address,
+     * Symbol)}. Functions that aren't in slots are usually globals, so the
+     * term's {@link InlineCache} is checked first and re-linked on a miss.
+     */
+    Function<List<Ast>, Object> lookup(Ast.Term ast) {
+        Scope start = scope;
+        if (ast.address != null) {
+            Scope resolved = scope.resolve(ast.address);
+            if (resolved != null && ast.address.isFree()) {
+                start = resolved.getParent();
+            } else if (resolved != null) {
+                Object value = resolved.get(ast.address.slot);
+                if (value != null) {
+                    return requireFunction(value);
+                }
+            }
+        }
+        return lookup(ast, start);
+    }
+
+    /**
+     * Looks up the function called by a term starting from the given scope,
+     * through the term's {@link InlineCache}.
+     */
+    Function<List<Ast>, Object> lookup(Ast.Term ast, Scope start) {
+        Symbol symbol = ast.getSymbol();
+        InlineCache cache = ast.cache;
+        if (cache == null) {
+            cache = new InlineCache();
+            ast.cache = cache;
+        }
+        int version = symbol.getVersion();
+        Function<List<Ast>, Object> function = cache.get(start, version);
+        if (function != null) {
+            return function;
+        }
+        Cell cell = start.cell(symbol);
+        if (cell == null) {
+            return requireFunction(start.lookup(symbol));
+        }
+        function = requireFunction(cell.value);
+        cache.link(start, version, cell, function);
+        return function;
+    }
+
     /**
      * Evaluates the NumberLiteral ast, which returns the stored number value.
      */
-    private BigDecimal eval(Ast.NumberLiteral ast) {
-        return  ast.getValue();
+    private Object eval(Ast.NumberLiteral ast) {
+        return literal(ast);
       //  throw new UnsupportedOperationException(); //TODO
     }
 
+    /**
+     * Returns the value of a number literal, which is rounded to a double in
+     * fast-math mode. Every engine evaluates number literals through here.
+     */
+    Object literal(Ast.NumberLiteral ast) {
+        return fastMath ? ast.getApproximation() : ast.getValue();
+    }
+
     /**
      * Evaluates the StringLiteral ast, which returns the stored string value.
      */
@@ -101,68 +468,70 @@ public final class Interpreter {
      * library.
      */
     private void init(Scope scope) {
-        scope.define("print", (Function<List<Ast>, Object>) args -> {
-            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
-            evaluated.forEach(out::print);
+        scope.define("print", strict("print", args -> {
+            for (Object obj : args) {
+                out.print(obj);
+            }
             out.println();
             return VOID;
-        });
-        scope.define("+", (Function<List<Ast>, Object>) args -> {
-            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
+        }));
+        scope.define("+", strict("+", fastMath ? FastMath::add : args -> {
             BigDecimal result = BigDecimal.ZERO;
-            for (Object obj : evaluated) {
-                result = result.add(requireType(BigDecimal.class, obj));
+            for (int i = 0; i < args.length; i++) {
+                BigDecimal value = requireType(BigDecimal.class, args[i]);
+                result = i == 0 ? Numbers.plus(value) : result.add(value);
             }
             return result;
-        });
-        scope.define("-", (Function<List<Ast>, Object>) args -> {
-                List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
-                if(!evaluated.isEmpty()) {
-                    BigDecimal result = evaluated.size() > 1 ? requireType(BigDecimal.class, evaluated.get(0)) : BigDecimal.ZERO.subtract(requireType(BigDecimal.class , evaluated.get(0)));
-                    evaluated.remove(0);
-
-                    for (Object obj : evaluated) {
-                        result = result.subtract(requireType(BigDecimal.class, obj));
+        }));
+        scope.define("-", strict("-", fastMath ? FastMath::subtract : args -> {
+                if(args.length != 0) {
+                    BigDecimal result = args.length > 1 ? requireType(BigDecimal.class, args[0]) : BigDecimal.ZERO.subtract(requireType(BigDecimal.class , args[0]));
+
+                    for (int i = 1; i < args.length; i++) {
+                        result = result.subtract(requireType(BigDecimal.class, args[i]));
                     }
                     return result;
                 }else {
                     throw new EvalException("nah");
                 }
-        });
-        scope.define("*" , (Function<List<Ast> , Object>) args -> {
-            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
+        }));
+        scope.define("*" , strict("*", fastMath ? FastMath::multiply : args -> {
             BigDecimal result = BigDecimal.ONE;
 
-            for(Object obj : evaluated) {
-                result = result.multiply(requireType(BigDecimal.class , obj));
+            for (int i = 0; i < args.length; i++) {
+                BigDecimal value = requireType(BigDecimal.class, args[i]);
+                result = i == 0 ? value : result.multiply(value);
             }
             return result;
 
-        });
-        scope.define("/" , (Function<List<Ast> , Object>) args -> {
-            List<Object> evaluated = args.stream().map(this::eval).collect(Collectors.toList());
-            if(!evaluated.isEmpty()) {
+        }));
+        scope.define("/" , strict("/", fastMath ? FastMath::divide : args -> {
+            if(args.length != 0) {
                 BigDecimal result;
+                int start;
 
-                if (evaluated.size() > 1){
-                    result = requireType(BigDecimal.class, evaluated.get(0));
-                    evaluated = evaluated.subList(1, evaluated.size());
+                if (args.length > 1){
+                    result = requireType(BigDecimal.class, args[0]);
+                    start = 1;
+                }
+                else {
+                    result = BigDecimal.ONE;
+                    start = 0;
                 }
-                else result = BigDecimal.ONE;
 
-                for (Object obj : evaluated) {
-                    result = result.divide(requireType(BigDecimal.class, obj), RoundingMode.HALF_EVEN);
+                for (int i = start; i < args.length; i++) {
+                    result = Numbers.divide(result, requireType(BigDecimal.class, args[i]));
                 }
 
                 return result;
             }else {
                 throw new EvalException("nah");
             }
-        });
-        scope.define("and" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define("and" , form("and", args -> {
             try{
                 for(Ast arg : args ) {
-                    if (!requireType(Boolean.class, eval(arg))) {
+                    if (!requireType(Boolean.class, walk(arg))) {
                         return false;
                 }
             }
@@ -170,43 +539,43 @@ public final class Interpreter {
             }catch (Exception e) {
                 throw new EvalException(e.getMessage());
             }
-        });
-        scope.define("or" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define("or" , form("or", args -> {
             for(Ast arg : args ) {
-                if (requireType(Boolean.class, eval(arg))) {
+                if (requireType(Boolean.class, walk(arg))) {
                     return true;
                 }
             }
             return false;
-        });
-        scope.define("not" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define("not" , form("not", args -> {
             try {
                 if(args.size() > 1 ){
                     throw new EvalException("More than one argument");
                 }
-                boolean value = requireType(Boolean.class, eval(args.get(0)));
+                boolean value = requireType(Boolean.class, walk(args.get(0)));
                 return !value;
             }catch (Exception e) {
                 throw new EvalException(e.getMessage());
             }
-        });
-        scope.define("equals?" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define("equals?" , form("equals?", args -> {
             try {
                 if(args.size() > 2 ){
                     throw new EvalException("More than two arguments");
                 }
-                return Objects.deepEquals(eval(args.get(0)), eval(args.get(1)));
+                return Objects.deepEquals(walk(args.get(0)), walk(args.get(1)));
 
             }catch (Exception e) {
                 throw new EvalException(e.getMessage());
             }
-        });
-        scope.define("list" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define("list" , wrapping("list", args -> {
             try {
                 LinkedList<Object> ll = new LinkedList<>();
 
-                for (Ast arg : args) {
-                    Object next = ll.isEmpty() ?  eval(arg) : requireType(eval(args.get(0)).getClass() , eval(arg));
+                for (Object arg : args) {
+                    Object next = ll.isEmpty() ?  arg : requireType(args[0].getClass() , arg);
                     ll.add(next);
                 }
 
@@ -214,18 +583,18 @@ public final class Interpreter {
             } catch (Exception e) {
             throw new EvalException(e.getMessage());
         }
-        });
-        scope.define("range" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define("range" , wrapping("range", fastMath ? FastMath::range : args -> {
             try {
-                if (args.size() > 2) {
+                if (args.length > 2) {
                     throw new EvalException("too many arguments for range.");
-                }else if(args.isEmpty()){
+                }else if(args.length == 0){
                     throw new EvalException("too little arguments for range");
                 }
                 LinkedList<BigDecimal> ll = new LinkedList<>();
 
-                BigDecimal first = requireType(BigDecimal.class, eval(args.get(0)));
-                BigDecimal second = requireType(BigDecimal.class, eval(args.get(1)));
+                BigDecimal first = requireType(BigDecimal.class, args[0]);
+                BigDecimal second = requireType(BigDecimal.class, args[1]);
 
                 if(first.scale() > 0 | second.scale() > 0 ){
                     throw new EvalException("received a decimal, was expecting integer value for bounds.");
@@ -241,209 +610,114 @@ public final class Interpreter {
             }catch (Exception e) {
             throw new EvalException(e.getMessage());
         }
-        });
-        scope.define("define" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define("define" , form("define", args -> {
             try {
                 if(args.size() != 2) {
                     throw new EvalException("Invalid number of arguments");
                 }
 
                 if (args.get(0) instanceof Ast.Identifier) {
-                    String ident = ((Ast.Identifier) args.get(0)).getName();
-                    this.scope.define(ident, eval(args.get(1)));
+                    Symbol ident = ((Ast.Identifier) args.get(0)).getSymbol();
+                    this.scope.define(ident, walk(args.get(1)));
                     return VOID;
                 } else if (args.get(0) instanceof  Ast.Term) {
-                    String name = ((Ast.Term) args.get(0)).getName();
-                    List<String> params = ((Ast.Term) args.get(0)).getArgs().stream()
-                            .map(a -> requireType(Ast.Identifier.class, a).getName())
-                            .collect(Collectors.toList());
-
-                    Scope parent = this.scope;
-
-                    this.scope.define(name , (Function<List<Ast> , Object>) arguments -> {
-                        List<Object> eval = arguments.stream().map(this::eval).collect(Collectors.toList());
-
-                        if(params.size() != eval.size()){
-                            throw new EvalException("Invalid Number of arguments");
-                        }
-
-                        Scope current  = this.scope;
-                        this.scope = new Scope(parent);
-
-                        for (int i = 0 ; i < params.size() ; i++){
-                            this.scope.define(params.get(i), eval.get(i));
-                        }
-                        Object result = eval(args.get(1));
-
-
-                        this.scope = current;
-                        return  result;
-                    });
+                    Ast.Term pattern = (Ast.Term) args.get(0);
+                    Layout layout = pattern.layout;
+                    if (layout == null || layout.getSource() != args.get(1)) {
+                        List<String> params = pattern.getArgs().stream()
+                                .map(a -> requireType(Ast.Identifier.class, a).getName())
+                                .collect(Collectors.toList());
+                        layout = Resolver.resolve(params, args.get(1));
+                        pattern.layout = layout;
+                    }
+                    this.scope.define(pattern.getSymbol(), new Lambda(this, layout, this.scope));
+                    return VOID;
                 }else{
                     throw new EvalException("Expected 2 or more arguments");
                 }
-
-                throw new EvalException("Invalid arguments");
-
-
             }
             catch (Exception e){
                 throw new EvalException(e.getMessage());
             }
-        });
-        scope.define("set!" , (Function<List<Ast> , Object>) args -> {
-            if(args.size() == 2) {
-                this.scope.set(args.get(0).toString(), eval(args.get(1)));
+        }));
+        scope.define("set!" , form("set!", args -> {
+            if(args.size() == 2 && args.get(0) instanceof Ast.Identifier) {
+                this.scope.set(((Ast.Identifier) args.get(0)).getSymbol(), walk(args.get(1)));
+            }else if(args.size() == 2) {
+                this.scope.set(args.get(0).toString(), walk(args.get(1)));
             }else {
                 throw new EvalException("Was expecting two arguments, got " + args.size());
             }
 
             return VOID;
-        });
-        scope.define(">" , (Function<List<Ast> , Object>) args -> {
-            try {
-            List<Comparable> list = new ArrayList<>();
-            for (Ast arg : args){
-                list.add(requireType(Comparable.class, eval(arg)));
-            }
-            for (int i = 0 ; i < args.size() - 1; i++){
-               if(list.get(i).compareTo(list.get(i+1)) <= 0){
-                   return false;
-               }
-            }
-            return true;
-            }catch (Exception e) {
-                throw new EvalException(e.getMessage());
-            }
-
-        });
-        scope.define(">=" , (Function<List<Ast> , Object>) args -> {
-            try {
-            List<Comparable> list = new ArrayList<>();
-            for (Ast arg : args){
-                list.add(requireType(Comparable.class, eval(arg)));
-            }
-            for (int i = 0 ; i < args.size() - 1; i++){
-                if(list.get(i).compareTo(list.get(i+1)) < 0){
-                    return false;
-                }
-            }
-            return true;
-        }catch (Exception e) {
-            throw new EvalException(e.getMessage());
-        }
-
-        });
-        scope.define("<" , (Function<List<Ast> , Object>) args -> {
-            try {
-            List<Comparable> list = new ArrayList<>();
-            for (Ast arg : args){
-                list.add(requireType(Comparable.class, eval(arg)));
-            }
-            for (int i = 0 ; i < args.size() - 1; i++){
-                if(list.get(i).compareTo(list.get(i+1)) >= 0){
-                    return false;
-                }
-            }
-            return true;
-        }catch (Exception e) {
-            throw new EvalException(e.getMessage());
-        }
-        });
-        scope.define("<=" , (Function<List<Ast> , Object>) args -> {
-            try {
-                List<Comparable> list = new ArrayList<>();
-                for (Ast arg : args) {
-                    list.add(requireType(Comparable.class, eval(arg)));
-                }
-                for (int i = 0; i < args.size() - 1; i++) {
-                    if (list.get(i).compareTo(list.get(i + 1)) > 0) {
-                        return false;
-                    }
-                }
-                return true;
-            }catch (Exception e) {
-                throw new EvalException(e.getMessage());
-            }
-        });
-        scope.define("do" , (Function<List<Ast> , Object>) args -> {
-           try {
-
-               this.scope = new Scope(scope);
-               Object result = null;
-
-               for (Ast arg : args) {
-                   result = eval(arg);
-               }
-
-               this.scope = this.scope.getParent();
-
-               if (result == null)
-                   return VOID;
-
-               return result;
-           }catch (Exception e) {
-               throw new EvalException(e.getMessage());
-           }
-
-        });
-        scope.define("while" , (Function<List<Ast> , Object>) args -> {
+        }));
+        scope.define(">" , comparison(">", comparison -> comparison > 0, (first, second) -> first > second));
+        scope.define(">=" , comparison(">=", comparison -> comparison >= 0, (first, second) -> first >= second));
+        scope.define("<" , comparison("<", comparison -> comparison < 0, (first, second) -> first < second));
+        scope.define("<=" , comparison("<=", comparison -> comparison <= 0, (first, second) -> first <= second));
+        scope.define("do" , Builtin.form("do", term -> block(term, false)));
+        scope.define("while" , Builtin.form("while", term -> {
+            List<Ast> args = term.getArgs();
             if(args.size() < 1){
                 throw new EvalException("not enough arguments for while loop");
             }
-            this.scope = new Scope(scope);
-//            Object result = null;
-
-
-            while(requireType(Boolean.class , eval(args.get(0))) == Boolean.TRUE) {
-                for (Ast arg : args.subList(1, args.size())) {
-                    eval(arg);
+            Scope current = this.scope;
+            this.scope = block(term);
+            try {
+                while(requireType(Boolean.class , walk(args.get(0))) == Boolean.TRUE) {
+                    for (Ast arg : args.subList(1, args.size())) {
+                        walk(arg);
+                    }
                 }
+            } finally {
+                this.scope = current;
             }
 
-            this.scope = this.scope.getParent();
-
             return VOID;
 
-        });
-        scope.define("for" , (Function<List<Ast>, Object>) args -> {
-//            this.scope = new Scope(scope);
+        }));
+        scope.define("for" , Builtin.form("for", term -> {
+            List<Ast> args = term.getArgs();
+            Scope current = this.scope;
             try {
-                if ( args.size() != 2){
+                if (args.size() < 2){
                      throw new EvalException("missing arguments");
                 }
 
-
-                scope.define(args.get(0).toString() , eval(args.get(0)) ) ;
-
-                Ast.Term variable = requireType(Ast.Term.class, eval(args.get(0)));
-                LinkedList ll = requireType(LinkedList.class , variable.getArgs().get(0));
-                this.scope = new Scope(scope);
-
-                scope.define(variable.getName() , ll.get(0));
-
-                for (Object dec : ll) {
-                    this.scope.set(variable.getName(), dec);
-                    eval(args.get(2));
-
+                Ast.Term variable = requireType(Ast.Term.class, args.get(0));
+                if (variable.getArgs().size() != 1) {
+                    throw new EvalException("Expected a single list for " + variable.getName() + ".");
+                }
+                List<?> list = requireType(List.class, walk(variable.getArgs().get(0)));
+                this.scope = block(term);
+                this.scope.define(variable.getSymbol(), VOID);
+
+                for (Object value : list) {
+                    this.scope.set(variable.getSymbol(), value);
+                    for (Ast arg : args.subList(1, args.size())) {
+                        walk(arg);
+                    }
                 }
-
-                this.scope = scope.getParent();
-
 
                 return VOID;
             }catch (Exception e) {
                 throw new EvalException(e.getMessage());
+            } finally {
+                this.scope = current;
             }
-
-
-
-
-        });
+        }));
 
 
         scope.define("true" , Boolean.TRUE);
         scope.define("false" , Boolean.FALSE);
+        if (fastMath) {
+            scope.define("sqrt", strict("sqrt", FastMath::sqrt));
+            scope.define("exp", strict("exp", FastMath::exp));
+            scope.define("log", strict("log", FastMath::log));
+            scope.define("pow", strict("pow", FastMath::pow));
+            scope.define("floor", strict("floor", FastMath::floor));
+        }
 //        scope.define("x", BigDecimal.valueOf(2));
 //        scope.define("y", BigDecimal.ONE);
 //        scope.define("z", BigDecimal.TEN);
@@ -452,6 +726,88 @@ public final class Interpreter {
         //TODO: Additional standard library functions
     }
 
+    /**
+     * Evaluates the arguments of a {@code do} in a new scope, returning the
+     * value of the last one. If the {@code do} is in tail position, so is the
+     * last argument, and a {@link TailCall} it returns is marked as wrapped.
+     */
+    private Object block(Ast.Term term, boolean tail) {
+        List<Ast> args = term.getArgs();
+        Scope current = this.scope;
+        try {
+            this.scope = block(term);
+            Object result = null;
+            for (int i = 0; i < args.size(); i++) {
+                result = tail && i == args.size() - 1 ? tail(args.get(i)) : walk(args.get(i));
+            }
+            if (result == null) {
+                return VOID;
+            } else if (result instanceof TailCall) {
+                ((TailCall) result).wrap();
+            }
+            return result;
+        } catch (Exception e) {
+            throw new EvalException(e.getMessage());
+        } finally {
+            this.scope = current;
+        }
+    }
+
+    /**
+     * Returns whether each value compares to the next as given, which is
+     * checked for every pair of numbers through {@link Numbers} and otherwise
+     * for any {@link Comparable} values.
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean compare(Object[] args, IntPredicate holds) {
+        boolean numbers = true;
+        for (Object arg : args) {
+            numbers &= arg instanceof BigDecimal;
+        }
+        if (numbers) {
+            for (int i = 0; i < args.length - 1; i++) {
+                if (!holds.test(Numbers.compare((BigDecimal) args[i], (BigDecimal) args[i + 1]))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        try {
+            List<Comparable> list = new ArrayList<>();
+            for (Object arg : args) {
+                list.add(requireType(Comparable.class, arg));
+            }
+            for (int i = 0; i < args.length - 1; i++) {
+                if (!holds.test(list.get(i).compareTo(list.get(i + 1)))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            throw new EvalException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a comparison builtin, which compares numbers as doubles in
+     * fast-math mode.
+     */
+    private Builtin comparison(String name, IntPredicate holds, FastMath.Comparison comparison) {
+        return strict(name, args -> fastMath && FastMath.isNumbers(args) ? FastMath.compare(args, comparison) : compare(args, holds));
+    }
+
+    private Builtin strict(String name, Builtin.Call call) {
+        return Builtin.strict(name, this, call);
+    }
+
+    private Builtin wrapping(String name, Builtin.Call call) {
+        return Builtin.wrapping(name, this, call);
+    }
+
+    private static Builtin form(String name, Function<List<Ast>, Object> function) {
+        return Builtin.form(name, term -> function.apply(term.getArgs()));
+    }
+
     /**
      * A helper function for type checking, taking in a type and an object and
      * throws an exception if the object does not have the required type.
@@ -460,7 +816,7 @@ public final class Interpreter {
      * occurs - in a real interpreter, we would have a stacktrace to provide
      * that implementation. For now, this is the simple-but-not-ideal solution.
      */
-    private static <T> T requireType(Class<T> type, Object value) {
+    static <T> T requireType(Class<T> type, Object value) {
         if (type.isInstance(value)) {
             return type.cast(value);
         } else {
@@ -468,4 +824,14 @@ public final class Interpreter {
         }
     }
 
+    /**
+     * Checks that the value is a function, as with {@link #requireType(Class,
+     * Object)}. Every function in a scope is given the arguments of a term as
+     * ASTs, so the unchecked cast to that type is made here.
+     */
+    @SuppressWarnings("unchecked")
+    static Function<List<Ast>, Object> requireFunction(Object value) {
+        return (Function<List<Ast>, Object>) requireType(Function.class, value);
+    }
+
 }
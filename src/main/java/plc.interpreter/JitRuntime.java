@@ -0,0 +1,290 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The methods called by the classes generated by the {@link JvmCompiler}.
+ *
+ * Generated classes are defined by their own class loader, so they can only
+ * access public members of this package. Everything they need goes through
+ * here, with the interpreter's own types passed as {@code Object}s so that
+ * they stay package-private. None of this is meant to be called by anything
+ * else.
+ */
+public final class JitRuntime {
+
+    private JitRuntime() {}
+
+    /**
+     * The compiled body of a function, which is called with the scope the
+     * function was defined in and the values of it's parameters.
+     */
+    public interface Entry {
+
+        Object call(Interpreter interpreter, Scope parent, Object[] values);
+
+    }
+
+    /**
+     * Looks up a variable that isn't defined in the function body.
+     */
+    public static Object lookup(Scope parent, Object symbol) {
+        return parent.lookup((Symbol) symbol);
+    }
+
+    /**
+     * Sets a variable that isn't defined in the function body.
+     */
+    public static void set(Scope parent, Object symbol, Object value) {
+        parent.set((Symbol) symbol, value);
+    }
+
+    /**
+     * Returns the function called by the term, which is the value of a local
+     * variable if it's defined, or otherwise looked up through the term's
+     * {@link InlineCache}.
+     */
+    public static Object function(Interpreter interpreter, Scope parent, Object term, Object local) {
+        if (local != null) {
+            return Interpreter.requireFunction(local);
+        }
+        return interpreter.lookup((Ast.Term) term, parent);
+    }
+
+    /**
+     * Returns whether the function takes the values of it's arguments, and so
+     * can be called by {@link #call(Object, Object[])}. Builtins that wrap
+     * exceptions from their arguments are applied to the term instead, since
+     * the generated handlers only cover the forms.
+     */
+    public static boolean isStrict(Object function) {
+        return function instanceof Lambda
+                || function instanceof Builtin && ((Builtin) function).isStrict() && !((Builtin) function).wrapsArguments();
+    }
+
+    /**
+     * Returns whether the function is the builtin with the given (interned)
+     * name, so the form can be run by the generated code.
+     */
+    public static boolean isBuiltin(Object function, String name) {
+        return function instanceof Builtin && ((Builtin) function).getName() == name;
+    }
+
+    /**
+     * Returns whether the function is one defined from the given layout in the
+     * given interpreter, which the compiled body can call directly.
+     */
+    public static boolean isSelf(Object function, Object layout, Interpreter interpreter) {
+        return function instanceof Lambda
+                && ((Lambda) function).getLayout() == layout
+                && ((Lambda) function).getInterpreter() == interpreter;
+    }
+
+    public static Scope parent(Object lambda) {
+        return ((Lambda) lambda).getParent();
+    }
+
+    /**
+     * Calls a strict function with the values of it's arguments.
+     */
+    public static Object call(Object function, Object[] values) {
+        if (function instanceof Builtin) {
+            return ((Builtin) function).call(values);
+        }
+        return ((Lambda) function).call(values);
+    }
+
+    /**
+     * Makes a call in tail position, which is returned as a {@link TailCall}
+     * if the function was created by {@code define}.
+     */
+    public static Object tailCall(Object function, Object[] values, boolean wraps) {
+        if (function instanceof Lambda) {
+            return new TailCall((Lambda) function, values, wraps);
+        }
+        return call(function, values);
+    }
+
+    /**
+     * Makes the tail call returned by a direct call of a compiled body, if it
+     * returned one.
+     */
+    public static Object complete(Object result) {
+        return result instanceof TailCall ? ((TailCall) result).run() : result;
+    }
+
+    /*
+     * The operators below are called with the function and the values of two
+     * arguments. If the function is the builtin of the same name and both
+     * values are numbers the result is computed directly, exactly as the
+     * builtin would (through {@link Numbers}); anything else is left to the
+     * function.
+     */
+
+    public static Object add(Object function, Object first, Object second) {
+        if (isBuiltin(function, "+") && first instanceof BigDecimal && second instanceof BigDecimal) {
+            return Numbers.plus((BigDecimal) first).add((BigDecimal) second);
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object subtract(Object function, Object first, Object second) {
+        if (isBuiltin(function, "-") && first instanceof BigDecimal && second instanceof BigDecimal) {
+            return ((BigDecimal) first).subtract((BigDecimal) second);
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object multiply(Object function, Object first, Object second) {
+        if (isBuiltin(function, "*") && first instanceof BigDecimal && second instanceof BigDecimal) {
+            return ((BigDecimal) first).multiply((BigDecimal) second);
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object less(Object function, Object first, Object second) {
+        if (isBuiltin(function, "<") && first instanceof BigDecimal && second instanceof BigDecimal) {
+            return Numbers.compare((BigDecimal) first, (BigDecimal) second) < 0;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object lessEqual(Object function, Object first, Object second) {
+        if (isBuiltin(function, "<=") && first instanceof BigDecimal && second instanceof BigDecimal) {
+            return Numbers.compare((BigDecimal) first, (BigDecimal) second) <= 0;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object greater(Object function, Object first, Object second) {
+        if (isBuiltin(function, ">") && first instanceof BigDecimal && second instanceof BigDecimal) {
+            return Numbers.compare((BigDecimal) first, (BigDecimal) second) > 0;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object greaterEqual(Object function, Object first, Object second) {
+        if (isBuiltin(function, ">=") && first instanceof BigDecimal && second instanceof BigDecimal) {
+            return Numbers.compare((BigDecimal) first, (BigDecimal) second) >= 0;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    /**
+     * The operators below are the same for {@link FastMath fast-math mode}.
+     * If both values are {@link Double}s they are computed with their
+     * primitive values, in the same order as the builtin (so {@code +} still
+     * starts from zero), and only the result is boxed.
+     */
+
+    public static Object fastAdd(Object function, Object first, Object second) {
+        if (isBuiltin(function, "+") && first instanceof Double && second instanceof Double) {
+            return 0.0 + (Double) first + (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object fastSubtract(Object function, Object first, Object second) {
+        if (isBuiltin(function, "-") && first instanceof Double && second instanceof Double) {
+            return (Double) first - (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object fastMultiply(Object function, Object first, Object second) {
+        if (isBuiltin(function, "*") && first instanceof Double && second instanceof Double) {
+            return 1.0 * (Double) first * (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object fastDivide(Object function, Object first, Object second) {
+        if (isBuiltin(function, "/") && first instanceof Double && second instanceof Double) {
+            return (Double) first / (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object fastLess(Object function, Object first, Object second) {
+        if (isBuiltin(function, "<") && first instanceof Double && second instanceof Double) {
+            return (Double) first < (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object fastLessEqual(Object function, Object first, Object second) {
+        if (isBuiltin(function, "<=") && first instanceof Double && second instanceof Double) {
+            return (Double) first <= (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object fastGreater(Object function, Object first, Object second) {
+        if (isBuiltin(function, ">") && first instanceof Double && second instanceof Double) {
+            return (Double) first > (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    public static Object fastGreaterEqual(Object function, Object first, Object second) {
+        if (isBuiltin(function, ">=") && first instanceof Double && second instanceof Double) {
+            return (Double) first >= (Double) second;
+        }
+        return call(function, new Object[] {first, second});
+    }
+
+    /**
+     * Returns the value of a condition, which must be a boolean.
+     */
+    public static boolean isTrue(Object value) {
+        return Interpreter.requireType(Boolean.class, value);
+    }
+
+    public static Object not(Object value) {
+        return !Interpreter.requireType(Boolean.class, value);
+    }
+
+    public static Object equal(Object first, Object second) {
+        return Objects.deepEquals(first, second);
+    }
+
+    public static Iterator<?> iterator(Object list) {
+        return Interpreter.requireType(List.class, list).iterator();
+    }
+
+    /**
+     * Returns the exception the builtin forms convert an exception to.
+     */
+    public static RuntimeException wrap(Throwable e) {
+        return new EvalException(e.getMessage());
+    }
+
+    public static RuntimeException defined(Object symbol) {
+        return new EvalException("The identifier " + symbol + " is already defined in this scope.");
+    }
+
+    /**
+     * Calls a function that isn't strict with the term, as the tree-walking
+     * interpreter would. The term may evaluate the function's local variables,
+     * so the scopes of the function body are created with the given layouts
+     * and slots (outermost first), which the compiled code reads the variables
+     * back from afterwards.
+     */
+    public static Object apply(Interpreter interpreter, Object function, Object term, Scope parent, Object layouts, Object[] frames) {
+        Scope scope = parent;
+        for (int i = 0; i < frames.length; i++) {
+            scope = new Scope(scope, (Layout) ((Object[]) layouts)[i], (Object[]) frames[i]);
+        }
+        Scope current = interpreter.scope;
+        interpreter.scope = scope;
+        try {
+            return interpreter.apply(Interpreter.requireFunction(function), (Ast.Term) term);
+        } finally {
+            interpreter.scope = current;
+        }
+    }
+
+}
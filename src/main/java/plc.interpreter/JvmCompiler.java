@@ -0,0 +1,707 @@
+package plc.interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static plc.interpreter.ClassFile.*;
+
+/**
+ * Compiles the bodies of hot functions to JVM classes for the {@link
+ * Interpreter.Engine#JVM} engine, so they can be compiled further by the
+ * JVM's own JIT.
+ *
+ * Each body becomes a static method which takes the parameters as arguments
+ * and keeps the rest of the frame and the scopes of it's blocks in local
+ * variables, so nothing is allocated for them. Calls of the function itself
+ * call the method directly, the arithmetic and comparison builtins with two
+ * arguments are computed by {@link JitRuntime} without an array, and the
+ * builtin forms are inlined behind a check that the name still refers to the
+ * builtin. Calls in tail position return a {@link TailCall} like the
+ * tree-walking interpreter. A function that isn't strict (usually a form that
+ * has been redefined) is called with the term the same way as the
+ * tree-walking interpreter, in scopes created from the local variables.
+ *
+ * Functions whose bodies define other functions aren't compiled, since those
+ * need the frame as their parent scope. Each interpreter has it's own
+ * compiler, whose class loader defines every class it compiles, so the
+ * classes can be unloaded along with the interpreter.
+ */
+final class JvmCompiler {
+
+    /**
+     * The number of calls of a function before it is compiled.
+     */
+    static final int THRESHOLD = 1000;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME = "plc/interpreter/JitRuntime";
+    private static final String INTERPRETER = "plc/interpreter/Interpreter";
+    private static final String VALUE = "Ljava/lang/Object;";
+    private static final String ARRAY = "[Ljava/lang/Object;";
+    private static final String PREFIX = "(" + ARRAY + "L" + INTERPRETER + ";Lplc/interpreter/Scope;";
+
+    /**
+     * The builtins with two arguments which are computed directly, and the
+     * methods of {@link JitRuntime} which do so, exactly or (in fast-math
+     * mode) with doubles.
+     */
+    private static final Map<String, String> OPERATORS = new HashMap<>();
+    private static final Map<String, String> FAST_OPERATORS = new HashMap<>();
+
+    static {
+        OPERATORS.put("+", "add");
+        OPERATORS.put("-", "subtract");
+        OPERATORS.put("*", "multiply");
+        OPERATORS.put("<", "less");
+        OPERATORS.put("<=", "lessEqual");
+        OPERATORS.put(">", "greater");
+        OPERATORS.put(">=", "greaterEqual");
+        FAST_OPERATORS.put("+", "fastAdd");
+        FAST_OPERATORS.put("-", "fastSubtract");
+        FAST_OPERATORS.put("*", "fastMultiply");
+        FAST_OPERATORS.put("/", "fastDivide");
+        FAST_OPERATORS.put("<", "fastLess");
+        FAST_OPERATORS.put("<=", "fastLessEqual");
+        FAST_OPERATORS.put(">", "fastGreater");
+        FAST_OPERATORS.put(">=", "fastGreaterEqual");
+    }
+
+    private final boolean fastMath;
+    private final Loader loader = new Loader();
+    private final Map<Layout, JitRuntime.Entry> entries = new IdentityHashMap<>();
+    private int threshold = THRESHOLD;
+
+    JvmCompiler(boolean fastMath) {
+        this.fastMath = fastMath;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the compiled body of functions with the given layout, or null if
+     * it can't be compiled (either because the body uses something the
+     * compiler doesn't support, or because the class would exceed one of the
+     * limits of a class file). Each layout is only compiled once.
+     */
+    JitRuntime.Entry compile(Layout layout) {
+        if (!entries.containsKey(layout)) {
+            JitRuntime.Entry entry;
+            try {
+                entry = new Method(layout, "plc/interpreter/jit/Function$" + (entries.size() + 1), fastMath).define(loader);
+            } catch (Bailout | IllegalStateException e) {
+                entry = null;
+            }
+            entries.put(layout, entry);
+        }
+        return entries.get(layout);
+    }
+
+    private static final class Loader extends ClassLoader {
+
+        private Loader() {
+            super(JvmCompiler.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+    /**
+     * The scope of the function body or a block, whose slots are stored in the
+     * local variables starting at the base.
+     */
+    private static final class Block {
+
+        private final Layout layout;
+        private final int base;
+
+        private Block(Layout layout, int base) {
+            this.layout = layout;
+            this.base = base;
+        }
+
+    }
+
+    /**
+     * Generates the class of a single function body. Local variables 0 to 2
+     * of the method are the constants, interpreter and parent scope, followed
+     * by the slots of the frame.
+     */
+    private static final class Method {
+
+        private final Layout layout;
+        private final String name;
+        private final boolean fastMath;
+        private final String descriptor;
+        private final ClassFile file;
+        private final ClassFile.Code code;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> indices = new IdentityHashMap<>();
+        private final List<Block> blocks = new ArrayList<>();
+        private final List<ClassFile.Label[]> wraps = new ArrayList<>();
+
+        private Method(Layout layout, String name, boolean fastMath) {
+            if (layout.getParams() > 250) {
+                throw new Bailout("Too many parameters.");
+            }
+            this.layout = layout;
+            this.name = name;
+            this.fastMath = fastMath;
+            StringBuilder descriptor = new StringBuilder(PREFIX);
+            for (int i = 0; i < layout.getParams(); i++) {
+                descriptor.append(VALUE);
+            }
+            this.descriptor = descriptor.append(")").append(VALUE).toString();
+            this.file = new ClassFile(name, OBJECT, "plc/interpreter/JitRuntime$Entry");
+            this.code = file.method(ACC_PUBLIC | ACC_STATIC, "body", this.descriptor);
+        }
+
+        private JitRuntime.Entry define(Loader loader) {
+            file.field(ACC_PRIVATE | ACC_FINAL, "constants", ARRAY);
+            ClassFile.Code init = file.method(ACC_PUBLIC, "<init>", "(" + ARRAY + ")V");
+            init.load(0);
+            init.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+            init.load(0);
+            init.load(1);
+            init.field(PUTFIELD, name, "constants", ARRAY);
+            init.op(RETURN, 0);
+            ClassFile.Code call = file.method(ACC_PUBLIC, "call", "(L" + INTERPRETER + ";Lplc/interpreter/Scope;" + ARRAY + ")" + VALUE);
+            call.load(0);
+            call.field(GETFIELD, name, "constants", ARRAY);
+            call.load(1);
+            call.load(2);
+            for (int i = 0; i < layout.getParams(); i++) {
+                call.load(3);
+                call.constant(i);
+                call.op(AALOAD, -1);
+            }
+            call.invoke(INVOKESTATIC, name, "body", descriptor);
+            call.op(ARETURN, -1);
+            compileBody();
+            byte[] bytes = file.toByteArray();
+            try {
+                Class<?> type = loader.define(name.replace('/', '.'), bytes);
+                return (JitRuntime.Entry) type.getConstructor(Object[].class).newInstance((Object) constants.toArray());
+            } catch (ReflectiveOperationException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        private void compileBody() {
+            for (int i = layout.getParams(); i < layout.size(); i++) {
+                code.local();
+                code.op(ACONST_NULL, 1);
+                code.store(3 + i);
+            }
+            blocks.add(new Block(layout, 3));
+            compileExpression(layout.getBody(), true, false);
+            code.op(ARETURN, -1);
+            for (ClassFile.Label[] wrap : wraps) {
+                code.handler(wrap[0], wrap[1], code.label(), "java/lang/Exception");
+                runtime("wrap", "(Ljava/lang/Throwable;)Ljava/lang/RuntimeException;");
+                code.op(ATHROW, -1);
+            }
+        }
+
+        private void compileExpression(Ast ast) {
+            compileExpression(ast, false, false);
+        }
+
+        /**
+         * Compiles the AST to code which pushes it's value. In tail position,
+         * a call of a function created by {@code define} pushes a {@link
+         * TailCall} instead, which wraps exceptions if the call is in a {@code
+         * do}.
+         */
+        private void compileExpression(Ast ast, boolean tail, boolean wraps) {
+            if (ast instanceof Ast.Term) {
+                compileTerm((Ast.Term) ast, tail, wraps);
+            } else if (ast instanceof Ast.Identifier) {
+                Symbol symbol = ((Ast.Identifier) ast).getSymbol();
+                ClassFile.Label done = code.label();
+                loadLocal(symbol, done);
+                code.load(2);
+                constant(symbol);
+                runtime("lookup", "(Lplc/interpreter/Scope;" + VALUE + ")" + VALUE);
+                code.mark(done);
+            } else if (ast instanceof Ast.NumberLiteral) {
+                Ast.NumberLiteral literal = (Ast.NumberLiteral) ast;
+                constant(fastMath ? literal.getApproximation() : literal.getValue());
+            } else if (ast instanceof Ast.StringLiteral) {
+                constant(((Ast.StringLiteral) ast).getValue());
+            } else {
+                throw new AssertionError(ast.getClass());
+            }
+        }
+
+        /**
+         * Pushes the value of the innermost local variable with the given name
+         * that has been defined and jumps to the label, or falls through with
+         * nothing pushed if there isn't one (as a scope lookup would skip the
+         * empty slots).
+         */
+        private void loadLocal(Symbol symbol, ClassFile.Label done) {
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                int slot = blocks.get(i).layout.indexOf(symbol);
+                if (slot >= 0) {
+                    code.load(blocks.get(i).base + slot);
+                    code.op(DUP, 1);
+                    code.jump(IFNONNULL, done);
+                    code.op(POP, -1);
+                }
+            }
+        }
+
+        private boolean isLocal(Symbol symbol) {
+            return blocks.stream().anyMatch(block -> block.layout.indexOf(symbol) >= 0);
+        }
+
+        private void compileTerm(Ast.Term term, boolean tail, boolean wraps) {
+            List<Ast> args = term.getArgs();
+            switch (term.getName()) {
+                case "define":
+                    if (!args.isEmpty() && args.get(0) instanceof Ast.Term) {
+                        throw new Bailout("Nested function definition.");
+                    } else if (args.size() == 2 && args.get(0) instanceof Ast.Identifier) {
+                        compileForm(term, () -> compileDefine(term));
+                        return;
+                    }
+                    break;
+                case "set!":
+                    if (args.size() == 2 && args.get(0) instanceof Ast.Identifier) {
+                        compileForm(term, () -> compileSet(term));
+                        return;
+                    }
+                    break;
+                case "do":
+                    compileForm(term, () -> compileDo(term, tail));
+                    return;
+                case "while":
+                    if (!args.isEmpty()) {
+                        compileForm(term, () -> compileWhile(term));
+                        return;
+                    }
+                    break;
+                case "for":
+                    if (args.size() >= 2 && args.get(0) instanceof Ast.Term && ((Ast.Term) args.get(0)).getArgs().size() == 1) {
+                        compileForm(term, () -> compileFor(term));
+                        return;
+                    }
+                    break;
+                case "and":
+                case "or":
+                    compileForm(term, () -> compileLogical(term));
+                    return;
+                case "not":
+                    if (args.size() == 1) {
+                        compileForm(term, () -> {
+                            ClassFile.Label start = mark();
+                            compileExpression(args.get(0));
+                            runtime("not", "(" + VALUE + ")" + VALUE);
+                            wrap(start);
+                        });
+                        return;
+                    }
+                    break;
+                case "equals?":
+                    if (args.size() == 2) {
+                        compileForm(term, () -> {
+                            ClassFile.Label start = mark();
+                            compileExpression(args.get(0));
+                            compileExpression(args.get(1));
+                            runtime("equal", "(" + VALUE + VALUE + ")" + VALUE);
+                            wrap(start);
+                        });
+                        return;
+                    }
+                    break;
+            }
+            compileCall(term, tail, wraps);
+        }
+
+        /**
+         * Compiles a call of the function with the values of the arguments if
+         * it is strict, which calls the function itself directly (unless the
+         * call is in tail position).
+         */
+        private void compileCall(Ast.Term term, boolean tail, boolean wraps) {
+            List<Ast> args = term.getArgs();
+            int function = compileFunction(term);
+            ClassFile.Label generic = code.label();
+            ClassFile.Label done = code.label();
+            code.load(function);
+            runtime("isStrict", "(" + VALUE + ")Z");
+            code.jump(IFEQ, generic);
+            int[] values = new int[args.size()];
+            for (int i = 0; i < values.length; i++) {
+                compileExpression(args.get(i));
+                values[i] = code.local();
+                code.store(values[i]);
+            }
+            if (!tail && values.length == layout.getParams() && !isLocal(term.getSymbol())) {
+                ClassFile.Label other = code.label();
+                code.load(function);
+                constant(layout);
+                code.load(1);
+                runtime("isSelf", "(" + VALUE + VALUE + "L" + INTERPRETER + ";)Z");
+                code.jump(IFEQ, other);
+                code.load(0);
+                code.load(1);
+                code.load(function);
+                runtime("parent", "(" + VALUE + ")Lplc/interpreter/Scope;");
+                for (int value : values) {
+                    code.load(value);
+                }
+                code.invoke(INVOKESTATIC, name, "body", descriptor);
+                runtime("complete", "(" + VALUE + ")" + VALUE);
+                code.jump(GOTO, done);
+                code.mark(other);
+            }
+            String operator = (fastMath ? FAST_OPERATORS : OPERATORS).get(term.getName());
+            code.load(function);
+            if (operator != null && values.length == 2) {
+                code.load(values[0]);
+                code.load(values[1]);
+                runtime(operator, "(" + VALUE + VALUE + VALUE + ")" + VALUE);
+            } else {
+                code.constant(values.length);
+                code.type(ANEWARRAY, OBJECT);
+                for (int i = 0; i < values.length; i++) {
+                    code.op(DUP, 1);
+                    code.constant(i);
+                    code.load(values[i]);
+                    code.op(AASTORE, -3);
+                }
+                if (tail) {
+                    code.constant(wraps ? 1 : 0);
+                    runtime("tailCall", "(" + VALUE + ARRAY + "Z)" + VALUE);
+                } else {
+                    runtime("call", "(" + VALUE + ARRAY + ")" + VALUE);
+                }
+            }
+            code.jump(GOTO, done);
+            code.mark(generic);
+            compileApply(term, function);
+            code.mark(done);
+        }
+
+        /**
+         * Compiles a builtin form, which is run by the given code if the name
+         * still refers to the builtin and is otherwise called with the term.
+         */
+        private void compileForm(Ast.Term term, Runnable form) {
+            if (isLocal(term.getSymbol())) {
+                throw new Bailout("Form name is a local variable.");
+            }
+            int function = compileFunction(term);
+            ClassFile.Label generic = code.label();
+            ClassFile.Label done = code.label();
+            code.load(function);
+            code.string(term.getName().intern());
+            runtime("isBuiltin", "(" + VALUE + "Ljava/lang/String;)Z");
+            code.jump(IFEQ, generic);
+            form.run();
+            code.jump(GOTO, done);
+            code.mark(generic);
+            compileApply(term, function);
+            code.mark(done);
+        }
+
+        /**
+         * Compiles the lookup of the function called by the term, returning
+         * the local variable it's stored in.
+         */
+        private int compileFunction(Ast.Term term) {
+            code.load(1);
+            code.load(2);
+            constant(term);
+            ClassFile.Label done = code.label();
+            loadLocal(term.getSymbol(), done);
+            code.op(ACONST_NULL, 1);
+            code.mark(done);
+            runtime("function", "(L" + INTERPRETER + ";Lplc/interpreter/Scope;" + VALUE + VALUE + ")" + VALUE);
+            int function = code.local();
+            code.store(function);
+            return function;
+        }
+
+        /**
+         * Compiles the call of a function that isn't strict with the term,
+         * which stores the local variables in the slots of scopes for the
+         * term to use and loads them back afterwards.
+         */
+        private void compileApply(Ast.Term term, int function) {
+            int frames = code.local();
+            code.constant(blocks.size());
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                code.op(DUP, 1);
+                code.constant(i);
+                code.constant(block.layout.size());
+                code.type(ANEWARRAY, OBJECT);
+                for (int j = 0; j < block.layout.size(); j++) {
+                    code.op(DUP, 1);
+                    code.constant(j);
+                    code.load(block.base + j);
+                    code.op(AASTORE, -3);
+                }
+                code.op(AASTORE, -3);
+            }
+            code.store(frames);
+            code.load(1);
+            code.load(function);
+            constant(term);
+            code.load(2);
+            constant(blocks.stream().map(block -> block.layout).toArray());
+            code.load(frames);
+            runtime("apply", "(L" + INTERPRETER + ";" + VALUE + VALUE + "Lplc/interpreter/Scope;" + VALUE + ARRAY + ")" + VALUE);
+            for (int i = 0; i < blocks.size(); i++) {
+                Block block = blocks.get(i);
+                for (int j = 0; j < block.layout.size(); j++) {
+                    code.load(frames);
+                    code.constant(i);
+                    code.op(AALOAD, -1);
+                    code.type(CHECKCAST, ARRAY);
+                    code.constant(j);
+                    code.op(AALOAD, -1);
+                    code.store(block.base + j);
+                }
+            }
+        }
+
+        private void compileDefine(Ast.Term term) {
+            Symbol symbol = ((Ast.Identifier) term.getArgs().get(0)).getSymbol();
+            Block block = blocks.get(blocks.size() - 1);
+            int slot = block.layout.indexOf(symbol);
+            if (slot < 0) {
+                throw new Bailout("Definition outside of the layout.");
+            }
+            ClassFile.Label start = mark();
+            compileExpression(term.getArgs().get(1));
+            ClassFile.Label undefined = code.label();
+            code.load(block.base + slot);
+            code.jump(IFNULL, undefined);
+            constant(symbol);
+            runtime("defined", "(" + VALUE + ")Ljava/lang/RuntimeException;");
+            code.op(ATHROW, -1);
+            code.mark(undefined);
+            code.store(block.base + slot);
+            loadVoid();
+            wrap(start);
+        }
+
+        private void compileSet(Ast.Term term) {
+            Symbol symbol = ((Ast.Identifier) term.getArgs().get(0)).getSymbol();
+            compileExpression(term.getArgs().get(1));
+            int value = code.local();
+            code.store(value);
+            ClassFile.Label done = code.label();
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                int slot = blocks.get(i).layout.indexOf(symbol);
+                if (slot >= 0) {
+                    ClassFile.Label next = code.label();
+                    code.load(blocks.get(i).base + slot);
+                    code.jump(IFNULL, next);
+                    code.load(value);
+                    code.store(blocks.get(i).base + slot);
+                    code.jump(GOTO, done);
+                    code.mark(next);
+                }
+            }
+            code.load(2);
+            constant(symbol);
+            code.load(value);
+            runtime("set", "(Lplc/interpreter/Scope;" + VALUE + VALUE + ")V");
+            code.mark(done);
+            loadVoid();
+        }
+
+        private void compileDo(Ast.Term term, boolean tail) {
+            ClassFile.Label start = mark();
+            enter(term);
+            List<Ast> args = term.getArgs();
+            if (args.isEmpty()) {
+                loadVoid();
+            }
+            for (int i = 0; i < args.size(); i++) {
+                if (i > 0) {
+                    code.op(POP, -1);
+                }
+                compileExpression(args.get(i), tail && i == args.size() - 1, true);
+            }
+            exit(term);
+            wrap(start);
+        }
+
+        private void compileWhile(Ast.Term term) {
+            List<Ast> args = term.getArgs();
+            enter(term);
+            ClassFile.Label loop = mark();
+            ClassFile.Label exit = code.label();
+            compileExpression(args.get(0));
+            runtime("isTrue", "(" + VALUE + ")Z");
+            code.jump(IFEQ, exit);
+            compileStatements(args.subList(1, args.size()));
+            code.jump(GOTO, loop);
+            code.mark(exit);
+            exit(term);
+            loadVoid();
+        }
+
+        private void compileFor(Ast.Term term) {
+            List<Ast> args = term.getArgs();
+            Ast.Term variable = (Ast.Term) args.get(0);
+            ClassFile.Label start = mark();
+            compileExpression(variable.getArgs().get(0));
+            runtime("iterator", "(" + VALUE + ")Ljava/util/Iterator;");
+            int iterator = code.local();
+            code.store(iterator);
+            enter(term);
+            Block block = blocks.get(blocks.size() - 1);
+            int slot = block.base + block.layout.indexOf(variable.getSymbol());
+            loadVoid();
+            code.store(slot);
+            ClassFile.Label loop = mark();
+            ClassFile.Label exit = code.label();
+            code.load(iterator);
+            code.invoke(INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z");
+            code.jump(IFEQ, exit);
+            code.load(iterator);
+            code.invoke(INVOKEINTERFACE, "java/util/Iterator", "next", "()" + VALUE);
+            code.store(slot);
+            compileStatements(args.subList(1, args.size()));
+            code.jump(GOTO, loop);
+            code.mark(exit);
+            exit(term);
+            loadVoid();
+            wrap(start);
+        }
+
+        /**
+         * Compiles {@code and} and {@code or}, which stop at the first argument
+         * that is false (or true, respectively) and otherwise return the
+         * opposite value.
+         */
+        private void compileLogical(Ast.Term term) {
+            boolean and = term.getName().equals("and");
+            ClassFile.Label start = mark();
+            ClassFile.Label shortCircuit = code.label();
+            ClassFile.Label done = code.label();
+            for (Ast arg : term.getArgs()) {
+                compileExpression(arg);
+                runtime("isTrue", "(" + VALUE + ")Z");
+                code.jump(and ? IFEQ : IFNE, shortCircuit);
+            }
+            loadBoolean(and);
+            if (!term.getArgs().isEmpty()) {
+                code.jump(GOTO, done);
+                code.mark(shortCircuit);
+                loadBoolean(!and);
+                code.mark(done);
+            }
+            if (and) {
+                wrap(start);
+            }
+        }
+
+        /**
+         * Compiles the body of a loop, whose values are discarded.
+         */
+        private void compileStatements(List<Ast> statements) {
+            for (Ast statement : statements) {
+                compileExpression(statement);
+                code.op(POP, -1);
+            }
+        }
+
+        /**
+         * Starts the scope of a block, which has new local variables for it's
+         * slots (if it has any).
+         */
+        private void enter(Ast.Term term) {
+            if (term.layout == null) {
+                throw new Bailout("Unresolved block.");
+            } else if (term.layout != Resolver.EMPTY) {
+                int base = code.local();
+                for (int i = 1; i < term.layout.size(); i++) {
+                    code.local();
+                }
+                for (int i = 0; i < term.layout.size(); i++) {
+                    code.op(ACONST_NULL, 1);
+                    code.store(base + i);
+                }
+                blocks.add(new Block(term.layout, base));
+            }
+        }
+
+        private void exit(Ast.Term term) {
+            if (term.layout != Resolver.EMPTY) {
+                blocks.remove(blocks.size() - 1);
+            }
+        }
+
+        private ClassFile.Label mark() {
+            ClassFile.Label label = code.label();
+            code.mark(label);
+            return label;
+        }
+
+        /**
+         * Records that the code from the label to the current position
+         * converts exceptions to {@link EvalException}s, as the builtin forms
+         * do.
+         */
+        private void wrap(ClassFile.Label start) {
+            wraps.add(new ClassFile.Label[] {start, mark()});
+        }
+
+        private void constant(Object value) {
+            int index = indices.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size() - 1;
+            });
+            code.load(0);
+            code.constant(index);
+            code.op(AALOAD, -1);
+        }
+
+        private void loadVoid() {
+            code.field(GETSTATIC, INTERPRETER, "VOID", VALUE);
+        }
+
+        private void loadBoolean(boolean value) {
+            code.field(GETSTATIC, "java/lang/Boolean", value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+        }
+
+        private void runtime(String method, String descriptor) {
+            code.invoke(INVOKESTATIC, RUNTIME, method, descriptor);
+        }
+
+    }
+
+    /**
+     * Thrown when a body uses something the compiler doesn't support, to give
+     * up on compiling it. The function is then run by the interpreter, so
+     * nothing needs a stack trace.
+     */
+    private static final class Bailout extends RuntimeException {
+
+        private Bailout(String message) {
+            super(message, null, false, false);
+        }
+
+    }
+
+}
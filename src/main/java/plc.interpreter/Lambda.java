@@ -0,0 +1,104 @@
+package plc.interpreter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A function created by {@code define}, which evaluates it's body in a new
+ * frame whose parent is the scope the function was defined in. The frame has
+ * a slot for each parameter and local definition, so calls don't need to
+ * create a map.
+ */
+final class Lambda implements Function<List<Ast>, Object> {
+
+    private final Interpreter interpreter;
+    private final Layout layout;
+    private final Scope parent;
+
+    /**
+     * The body compiled by the {@link Interpreter.Engine#JVM} engine, once the
+     * function has been called often enough (and if it can be compiled).
+     */
+    private JitRuntime.Entry entry;
+    private int calls;
+
+    Lambda(Interpreter interpreter, Layout layout, Scope parent) {
+        this.interpreter = interpreter;
+        this.layout = layout;
+        this.parent = parent;
+    }
+
+    @Override
+    public Object apply(List<Ast> args) {
+        Object[] values = new Object[args.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = interpreter.walk(args.get(i));
+        }
+        return call(values);
+    }
+
+    /**
+     * Calls the function with the values of it's arguments. The array may be
+     * used as the frame's slots, so it shouldn't be reused by the caller.
+     */
+    Object call(Object[] values) {
+        Object result = enter(values);
+        return result instanceof TailCall ? ((TailCall) result).run() : result;
+    }
+
+    /**
+     * Runs the body of the function with the values of it's arguments, which
+     * may end with a {@link TailCall} for the caller to make.
+     */
+    Object enter(Object[] values) {
+        if (entry == null) {
+            JvmCompiler jvm = interpreter.getJvmCompiler();
+            if (jvm != null && jvm.getThreshold() >= 0 && calls++ == jvm.getThreshold()) {
+                entry = jvm.compile(layout);
+            }
+        }
+        if (entry != null) {
+            checkArity(values);
+            return entry.call(interpreter, parent, values);
+        }
+        return interpreter.invoke(layout, frame(values));
+    }
+
+    /**
+     * Returns the scope for a call of the function with the given values,
+     * checking that there is one for each parameter.
+     */
+    Scope frame(Object[] values) {
+        checkArity(values);
+        Object[] slots = values.length == layout.size() ? values : Arrays.copyOf(values, layout.size());
+        return new Scope(parent, layout, slots);
+    }
+
+    private void checkArity(Object[] values) {
+        if (values.length != layout.getParams()) {
+            throw new EvalException("Invalid Number of arguments");
+        }
+    }
+
+    /**
+     * Returns whether the body has been compiled by the {@link
+     * Interpreter.Engine#JVM} engine.
+     */
+    boolean isCompiled() {
+        return entry != null;
+    }
+
+    Interpreter getInterpreter() {
+        return interpreter;
+    }
+
+    Layout getLayout() {
+        return layout;
+    }
+
+    Scope getParent() {
+        return parent;
+    }
+
+}
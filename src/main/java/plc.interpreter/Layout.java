@@ -0,0 +1,96 @@
+package plc.interpreter;
+
+import java.util.Collection;
+
+/**
+ * Describes the slots of the scopes created for a function call or a block
+ * ({@code do}, {@code while} and {@code for}), as determined by the {@link
+ * Resolver}. For a function, the parameters come first followed by the names
+ * defined in the body; for a block, the names defined in the block.
+ *
+ * Layouts are compared by identity: {@link Address}es record the layout they
+ * were resolved against, and a scope is only accessed by slot if it was
+ * created with that same layout.
+ */
+final class Layout {
+
+    private final Symbol[] names;
+    private final int params;
+    private final Ast source;
+    private Ast body;
+    private Bytecode bytecode;
+    private Closure closure;
+
+    Layout(Collection<String> names, int params, Ast source) {
+        this.names = names.stream().map(Symbol::of).toArray(Symbol[]::new);
+        this.params = params;
+        this.source = source;
+        this.body = source;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the number of parameters, which are the first slots.
+     */
+    int getParams() {
+        return params;
+    }
+
+    /**
+     * Returns the body of the function this layout was resolved for, as it was
+     * written, or null if it is the layout of a block.
+     */
+    Ast getSource() {
+        return source;
+    }
+
+    /**
+     * Returns the resolved body of the function, which is the source unless
+     * the {@link Resolver} had to copy nodes shared by an {@link AstInterner}.
+     */
+    Ast getBody() {
+        return body;
+    }
+
+    void setBody(Ast body) {
+        this.body = body;
+    }
+
+    /**
+     * Returns the body compiled to {@link Bytecode}, which is created the
+     * first time it's needed.
+     */
+    Bytecode getBytecode() {
+        if (bytecode == null) {
+            bytecode = Compiler.compile(body);
+        }
+        return bytecode;
+    }
+
+    /**
+     * Returns the body compiled to a {@link Closure} in tail position, which
+     * is created the first time it's needed.
+     */
+    Closure getClosure() {
+        if (closure == null) {
+            closure = ClosureCompiler.compileBody(body);
+        }
+        return closure;
+    }
+
+    /**
+     * Returns the slot of the given name, or -1 if it isn't in this layout.
+     */
+    int indexOf(Symbol name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == name) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -1,7 +1,9 @@
 package plc.interpreter;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.regex.Pattern;
 
 /**
@@ -18,22 +20,82 @@ import java.util.regex.Pattern;
  * helpers, they're not necessary but their use will make the implementation a
  * lot easier. Regex isn't the most performant way to go but it gets the job
  * done, and the focus here is on the concept.
+ *
+ * Since regex matching per character dominates lexing time on large inputs,
+ * the default {@link Mode#TABLE} engine instead classifies characters with the
+ * precomputed {@link #CLASSES} table and never allocates per character. The
+ * original peek/match engine is still available as {@link Mode#REGEX} for
+ * comparison, and both produce the same tokens.
+ *
+ * The lexer is also an {@link Iterator} of tokens, which lets the parser pull
+ * tokens on demand instead of waiting for the whole list from {@link #lex()}.
  */
-public final class Lexer {
+public final class Lexer implements Iterator<Token> {
+
+    /**
+     * Selects the engine used to classify characters.
+     */
+    public enum Mode {
+        TABLE,
+        REGEX
+    }
+
+    private static final int WHITESPACE = 1;
+    private static final int DIGIT = 2;
+    private static final int SIGN = 4;
+    private static final int IDENTIFIER_START = 8;
+    private static final int IDENTIFIER_PART = 16;
+    private static final int DOT_IDENTIFIER = 32;
+    private static final int OPERATOR = 64;
+
+    /**
+     * Character class bits for each ASCII character, mirroring the regex
+     * character classes used by the {@link Mode#REGEX} engine. Characters
+     * outside of ASCII have no class.
+     */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        classify(" \f\b\n\r\t\u000B", WHITESPACE);
+        classify("0123456789", DIGIT | IDENTIFIER_PART | DOT_IDENTIFIER);
+        classify("+-", SIGN | IDENTIFIER_START | IDENTIFIER_PART | DOT_IDENTIFIER);
+        classify("abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ*?:!/<>_=", IDENTIFIER_START | IDENTIFIER_PART | DOT_IDENTIFIER);
+        classify(".", IDENTIFIER_PART | OPERATOR);
+        classify("@(#)[]'", OPERATOR);
+    }
+
+    private static void classify(String characters, int bits) {
+        for (char c : characters.toCharArray()) {
+            CLASSES[c] |= bits;
+        }
+    }
 
     final CharStream chars;
+    final Mode mode;
+
+    Lexer(CharSequence input) {
+        this(input, Mode.TABLE);
+    }
 
-    Lexer(String input) {
+    Lexer(CharSequence input, Mode mode) {
         chars = new CharStream(input);
+        this.mode = mode;
     }
 
     /**
      * Lexes the input and returns the list of tokens.
      */
-    public static List<Token> lex(String input) throws ParseException {
+    public static List<Token> lex(CharSequence input) throws ParseException {
         return new Lexer(input).lex();
     }
 
+    /**
+     * Lexes the input with the given engine and returns the list of tokens.
+     */
+    public static List<Token> lex(CharSequence input, Mode mode) throws ParseException {
+        return new Lexer(input, mode).lex();
+    }
+
     /**
      * Repeatedly lexes the next token using {@link #lexToken()} until the end
      * of the input is reached, returning the list of tokens lexed. This should
@@ -41,17 +103,9 @@ public final class Lexer {
      */
     List<Token> lex() throws ParseException {
         List<Token> tokens = new ArrayList<>();
-        int v = 0x0B;
-        char vEscape = (char) v;
-
-        while(chars.has(0)){
-            while(peek(" ") | peek("[\\\f\\\b\\\n\\\r\\\t]") | peek( String.valueOf(vEscape))){
-                chars.advance();
-                chars.reset();
-            }
-            if(chars.has(0))
-                tokens.add(lexToken());
 
+        while(hasNext()){
+            tokens.add(next());
         }
 
         return tokens;
@@ -60,6 +114,27 @@ public final class Lexer {
         //throw new UnsupportedOperationException(); //TODO
     }
 
+    /**
+     * Skips any whitespace and returns true if there is another token.
+     */
+    @Override
+    public boolean hasNext() {
+        skipWhitespace();
+        return chars.has(0);
+    }
+
+    /**
+     * Lexes and returns the next token, throwing a {@link ParseException} if
+     * it is invalid.
+     */
+    @Override
+    public Token next() throws ParseException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return lexToken();
+    }
+
     /**
      * Lexes the next token. It may be helpful to have this call other methods,
      * such as {@code lexIdentifier()} or {@code lexNumber()}, based on the next
@@ -98,6 +173,160 @@ public final class Lexer {
      * </pre>
      */
     Token lexToken() throws ParseException {
+        if (mode == Mode.REGEX) {
+            return lexTokenRegex();
+        }
+        Token.Type type = lexTokenType();
+        return new Token(type, chars.input, chars.start, chars.index - chars.start);
+    }
+
+    /**
+     * Lexes the next token into the given buffer without creating a {@link
+     * Token}, returning false if the end of the input has been reached.
+     */
+    boolean lexInto(TokenBuffer tokens) throws ParseException {
+        if (!hasNext()) {
+            return false;
+        }
+        Token.Type type = lexTokenType();
+        tokens.add(type, chars.start, chars.index - chars.start);
+        return true;
+    }
+
+    /**
+     * Lexes the next token and returns its type. The token spans from {@link
+     * CharStream#start} to the current index.
+     */
+    private Token.Type lexTokenType() throws ParseException {
+        if (mode == Mode.REGEX) {
+            return lexTokenRegex().getType();
+        }
+        if (is(0, DIGIT) || is(0, SIGN) && is(1, DIGIT)) {
+            return lexNumberTable();
+        } else if (is(0, IDENTIFIER_START) || chars.get(0) == '.' && is(1, DOT_IDENTIFIER)) {
+            return lexIdentifierTable();
+        } else if (chars.get(0) == '"') {
+            return lexStringTable();
+        } else if (is(0, OPERATOR)) {
+            //As with the regex engine, a period swallows an operator after it.
+            if (chars.get(0) == '.' && is(1, OPERATOR)) {
+                chars.advance();
+            }
+            chars.advance();
+            return chars.mark(Token.Type.OPERATOR);
+        }
+        throw new ParseException(" couldnt parse", chars.index);
+    }
+
+    private Token.Type lexIdentifierTable() {
+        while (is(0, IDENTIFIER_PART)) {
+            chars.advance();
+        }
+        return chars.mark(Token.Type.IDENTIFIER);
+    }
+
+    private Token.Type lexNumberTable() {
+        if (is(0, SIGN)) {
+            chars.advance();
+        }
+        while (is(0, DIGIT)) {
+            chars.advance();
+        }
+        if (chars.has(0) && chars.get(0) == '.' && is(1, DIGIT)) {
+            chars.advance();
+            while (is(0, DIGIT)) {
+                chars.advance();
+            }
+        }
+        return chars.mark(Token.Type.NUMBER);
+    }
+
+    private Token.Type lexStringTable() throws ParseException {
+        chars.advance();
+        while (chars.has(0)) {
+            char c = chars.get(0);
+            if (c == '\\') {
+                if (!chars.has(1) || "bnrt'\"\\".indexOf(chars.get(1)) < 0) {
+                    throw new ParseException("could not parse", chars.index);
+                }
+                chars.advance();
+            } else if (c == '"') {
+                chars.advance();
+                return chars.mark(Token.Type.STRING);
+            }
+            chars.advance();
+        }
+        throw new ParseException("could not parse", chars.index);
+    }
+
+    /**
+     * Decodes the string literal between the given indices of the input in a
+     * single pass, removing the surrounding quotes and replacing the escapes
+     * allowed by {@link Regex#STRING}. The literal must have already been
+     * lexed as a {@link Token.Type#STRING}, so escapes are known to be valid.
+     */
+    static String decodeString(CharSequence input, int start, int end) {
+        int first = start + 1;
+        int last = end - 1;
+        int i = first;
+        while (i < last && input.charAt(i) != '\\') {
+            i++;
+        }
+        if (i == last) {
+            return input.subSequence(first, last).toString();
+        }
+        char[] value = new char[last - first];
+        int length = 0;
+        for (int j = first; j < i; j++) {
+            value[length++] = input.charAt(j);
+        }
+        for (; i < last; i++) {
+            char c = input.charAt(i);
+            if (c == '\\') {
+                switch (input.charAt(++i)) {
+                    case 'b': c = '\b'; break;
+                    case 'n': c = '\n'; break;
+                    case 'r': c = '\r'; break;
+                    case 't': c = '\t'; break;
+                    default: c = input.charAt(i); break;
+                }
+            }
+            value[length++] = c;
+        }
+        return new String(value, 0, length);
+    }
+
+    /**
+     * Skips any whitespace before the next token, resetting the literal.
+     */
+    private void skipWhitespace() {
+        if (mode == Mode.REGEX) {
+            char vEscape = (char) 0x0B;
+            while(peek(" ") | peek("[\\\f\\\b\\\n\\\r\\\t]") | peek( String.valueOf(vEscape))){
+                chars.advance();
+                chars.reset();
+            }
+        } else {
+            while (is(0, WHITESPACE)) {
+                chars.advance();
+            }
+            chars.reset();
+        }
+    }
+
+    /**
+     * Returns true if there is a character at the given offset which has any of
+     * the given {@link #CLASSES} bits.
+     */
+    private boolean is(int offset, int bits) {
+        if (!chars.has(offset)) {
+            return false;
+        }
+        char c = chars.get(offset);
+        return c < CLASSES.length && (CLASSES[c] & bits) != 0;
+    }
+
+    private Token lexTokenRegex() throws ParseException {
 
         if (peek("[0-9]") | peek("[\\+-]","[0-9]")){
             return lexNumber();
@@ -216,11 +445,12 @@ public final class Lexer {
      */
     static final class CharStream {
 
-        final String input;
+        final CharSequence input;
         int index = 0;
         int length = 0;
+        int start = 0;
 
-        CharStream(String input) {
+        CharStream(CharSequence input) {
             this.input = input;
         }
 
@@ -265,10 +495,18 @@ public final class Lexer {
          * <em>starting</em> index.
          */
         Token emit(Token.Type type) {
-            int start = index - length;
-            reset(); //
-            return new Token(type, input.substring(start, index), start);
-            //TODO
+            mark(type);
+            return new Token(type, input, start, index - start);
+        }
+
+        /**
+         * Records the start of the token like {@link #emit(Token.Type)} and
+         * resets the length, but returns only the type instead of a token.
+         */
+        Token.Type mark(Token.Type type) {
+            start = index - length;
+            reset();
+            return type;
         }
 
     }
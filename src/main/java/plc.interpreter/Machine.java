@@ -0,0 +1,288 @@
+package plc.interpreter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The stack machine which runs {@link Bytecode} for the {@link
+ * Interpreter.Engine#BYTECODE} engine.
+ *
+ * Calls of functions created by {@code define} don't recurse into the machine:
+ * the caller's chunk, position and scope are saved in a frame and the function
+ * runs in the same loop until it returns. Functions are only run by a new
+ * machine when they're called from somewhere else, such as the arguments of
+ * a builtin form the compiler doesn't implement itself.
+ */
+final class Machine {
+
+    private final Interpreter interpreter;
+
+    /**
+     * The frames of the calls in progress, which are the chunk, position to
+     * return to and scope of each caller.
+     */
+    private Bytecode[] chunks = new Bytecode[8];
+    private int[] returns = new int[8];
+    private Scope[] scopes = new Scope[8];
+    private int fp;
+
+    /**
+     * The chunk being run, and the position of the current instruction when
+     * an exception was thrown. Everything else the loop needs is kept in local
+     * variables.
+     */
+    private Bytecode chunk;
+    private int pc;
+
+    private Machine(Interpreter interpreter, Bytecode entry) {
+        this.interpreter = interpreter;
+        this.chunk = entry;
+    }
+
+    /**
+     * Runs the chunk in the interpreter's current scope, returning it's
+     * result. The scope is restored if an exception is thrown.
+     */
+    static Object run(Interpreter interpreter, Bytecode entry) {
+        Scope base = interpreter.scope;
+        Machine machine = new Machine(interpreter, entry);
+        try {
+            return machine.execute();
+        } catch (RuntimeException e) {
+            if (e instanceof EvalException || !machine.wraps()) {
+                throw e;
+            }
+            throw new EvalException(e.getMessage());
+        } finally {
+            interpreter.scope = base;
+        }
+    }
+
+    private Object execute() {
+        Object[] stack = new Object[16];
+        int sp = 0;
+        int[] code = chunk.code;
+        Object[] constants = chunk.getConstants(interpreter.isFastMath());
+        int pc = 0;
+        try {
+            while (true) {
+                if (sp + 2 >= stack.length) {
+                    stack = grow(stack);
+                }
+                switch (code[pc++]) {
+                    case Bytecode.CONST:
+                        stack[sp++] = constants[code[pc++]];
+                        break;
+                    case Bytecode.LOAD: {
+                        Ast.Identifier identifier = (Ast.Identifier) constants[code[pc++]];
+                        stack[sp++] = interpreter.lookup(identifier.address, identifier.getSymbol());
+                        break;
+                    }
+                    case Bytecode.DEFINE:
+                        interpreter.scope.define((Symbol) constants[code[pc++]], stack[sp - 1]);
+                        stack[sp - 1] = Interpreter.VOID;
+                        break;
+                    case Bytecode.SET:
+                        interpreter.scope.set((Symbol) constants[code[pc++]], stack[sp - 1]);
+                        stack[sp - 1] = Interpreter.VOID;
+                        break;
+                    case Bytecode.POP:
+                        stack[--sp] = null;
+                        break;
+                    case Bytecode.JUMP:
+                        pc = code[pc];
+                        break;
+                    case Bytecode.JUMP_FALSE:
+                        pc = Interpreter.requireType(Boolean.class, stack[--sp]) ? pc + 1 : code[pc];
+                        break;
+                    case Bytecode.JUMP_TRUE:
+                        pc = Interpreter.requireType(Boolean.class, stack[--sp]) ? code[pc] : pc + 1;
+                        break;
+                    case Bytecode.FUNCTION: {
+                        Ast.Term term = (Ast.Term) constants[code[pc]];
+                        Function<List<Ast>, Object> function = interpreter.lookup(term);
+                        if (isStrict(function)) {
+                            stack[sp++] = function;
+                            pc += 2;
+                        } else {
+                            stack[sp++] = interpreter.apply(function, term);
+                            pc = code[pc + 1];
+                        }
+                        break;
+                    }
+                    case Bytecode.CALL:
+                    case Bytecode.INVOKE: {
+                        Object function;
+                        Object[] values;
+                        if (code[pc - 1] == Bytecode.CALL) {
+                            values = new Object[code[pc++]];
+                            for (int i = values.length - 1; i >= 0; i--) {
+                                values[i] = stack[--sp];
+                                stack[sp] = null;
+                            }
+                            function = stack[--sp];
+                        } else {
+                            Ast.Term term = (Ast.Term) constants[code[pc]];
+                            Function<List<Ast>, Object> called = interpreter.lookup(term);
+                            if (!isStrict(called)) {
+                                stack[sp++] = interpreter.apply(called, term);
+                                pc += 2;
+                                break;
+                            }
+                            function = called;
+                            Object[] leaves = (Object[]) constants[code[pc + 1]];
+                            values = new Object[leaves.length];
+                            for (int i = 0; i < values.length; i++) {
+                                if (leaves[i] instanceof Ast.Identifier) {
+                                    Ast.Identifier identifier = (Ast.Identifier) leaves[i];
+                                    values[i] = interpreter.lookup(identifier.address, identifier.getSymbol());
+                                } else {
+                                    values[i] = leaves[i];
+                                }
+                            }
+                            pc += 2;
+                        }
+                        if (function instanceof Builtin) {
+                            stack[sp++] = ((Builtin) function).call(values);
+                            break;
+                        }
+                        Lambda lambda = (Lambda) function;
+                        if (lambda.getInterpreter() != interpreter) {
+                            stack[sp++] = lambda.call(values);
+                            break;
+                        }
+                        enter(lambda, values, pc);
+                        code = chunk.code;
+                        constants = chunk.getConstants(interpreter.isFastMath());
+                        pc = 0;
+                        break;
+                    }
+                    case Bytecode.RETURN:
+                        if (fp == 0) {
+                            return stack[sp - 1];
+                        }
+                        pc = leave();
+                        code = chunk.code;
+                        constants = chunk.getConstants(interpreter.isFastMath());
+                        break;
+                    case Bytecode.GUARD: {
+                        Ast.Term term = (Ast.Term) constants[code[pc]];
+                        Function<List<Ast>, Object> function = interpreter.lookup(term);
+                        if (function instanceof Builtin && ((Builtin) function).getName() == constants[code[pc + 1]]) {
+                            pc += 3;
+                        } else {
+                            stack[sp++] = interpreter.apply(function, term);
+                            pc = code[pc + 2];
+                        }
+                        break;
+                    }
+                    case Bytecode.ENTER:
+                        interpreter.scope = interpreter.block((Ast.Term) constants[code[pc++]]);
+                        break;
+                    case Bytecode.EXIT:
+                        if (((Ast.Term) constants[code[pc++]]).layout != Resolver.EMPTY) {
+                            interpreter.scope = interpreter.scope.getParent();
+                        }
+                        break;
+                    case Bytecode.ITER:
+                        stack[sp - 1] = Interpreter.requireType(List.class, stack[sp - 1]).iterator();
+                        break;
+                    case Bytecode.NEXT: {
+                        Iterator<?> iterator = (Iterator<?>) stack[sp - 1];
+                        if (iterator.hasNext()) {
+                            interpreter.scope.set((Symbol) constants[code[pc]], iterator.next());
+                            pc += 2;
+                        } else {
+                            stack[--sp] = null;
+                            pc = code[pc + 1];
+                        }
+                        break;
+                    }
+                    default:
+                        throw new AssertionError(code[pc - 1]);
+                }
+            }
+        } catch (RuntimeException e) {
+            this.pc = pc;
+            throw e;
+        }
+    }
+
+    /**
+     * Saves the frame of the caller, which continues at the given position,
+     * and starts running the body of the function. The number of frames is
+     * limited by {@link Interpreter#setMaxDepth(int)}.
+     */
+    private void enter(Lambda lambda, Object[] values, int pc) {
+        if (fp == interpreter.getMaxDepth()) {
+            throw new EvalException("Maximum call depth of " + fp + " exceeded.");
+        }
+        Scope frame = lambda.frame(values);
+        if (fp == chunks.length) {
+            chunks = Arrays.copyOf(chunks, 2 * fp);
+            returns = Arrays.copyOf(returns, 2 * fp);
+            scopes = Arrays.copyOf(scopes, 2 * fp);
+        }
+        chunks[fp] = chunk;
+        returns[fp] = pc;
+        scopes[fp] = interpreter.scope;
+        fp++;
+        interpreter.scope = frame;
+        chunk = lambda.getLayout().getBytecode();
+    }
+
+    /**
+     * Restores the frame of the caller, returning the position it continues
+     * at.
+     */
+    private int leave() {
+        fp--;
+        chunk = chunks[fp];
+        interpreter.scope = scopes[fp];
+        chunks[fp] = null;
+        scopes[fp] = null;
+        return returns[fp];
+    }
+
+    /**
+     * Returns whether the function takes the values of it's arguments, and so
+     * can be called by {@link Bytecode#CALL}. Builtins that wrap exceptions
+     * from their arguments are applied to the term instead, since the
+     * exception table only knows about the forms.
+     */
+    private static boolean isStrict(Object function) {
+        return function instanceof Lambda
+                || function instanceof Builtin && ((Builtin) function).isStrict() && !((Builtin) function).wrapsArguments();
+    }
+
+    /**
+     * Returns a copy of the stack with twice the capacity. This is always an
+     * {@code Object[]}, which lets the JIT skip the type check of storing an
+     * element (which {@link Arrays#copyOf(Object[], int)} doesn't guarantee).
+     */
+    private static Object[] grow(Object[] stack) {
+        Object[] grown = new Object[2 * stack.length];
+        System.arraycopy(stack, 0, grown, 0, stack.length);
+        return grown;
+    }
+
+    /**
+     * Returns whether the exception thrown by the current instruction, or any
+     * of the calls that led to it, is inside one of the {@link Bytecode#wraps}
+     * of it's chunk.
+     */
+    private boolean wraps() {
+        if (chunk.wraps(pc - 1)) {
+            return true;
+        }
+        for (int i = fp - 1; i >= 0; i--) {
+            if (chunks[i].wraps(returns[i] - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,762 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * An executable node compiled from an {@link Ast}, used by the {@link
+ * Interpreter.Engine#NODES} engine.
+ *
+ * Each call starts out as an {@link UninitializedCall}, which replaces itself
+ * in it's parent the first time it runs with a node specialized for the
+ * function it found: builtin forms like {@code do} and {@code while} are
+ * implemented directly on child nodes, strict builtins and functions created
+ * by {@code define} are called with the values of their arguments, and
+ * anything else is called through the {@link GenericCall} path used by the
+ * tree-walking interpreter.
+ *
+ * Arithmetic and comparison nodes also specialize on the types they observe.
+ * For example, {@code +} starts as a {@link LongArithmetic} node, which adds
+ * integers that fit in a long without going through {@link BigDecimal}. If it
+ * sees a value that isn't a small integer (or the result overflows), it
+ * rewrites itself to a {@link DecimalArithmetic} node, and if that sees a
+ * value that isn't a number it falls back to calling the builtin. Since every
+ * specialization checks that the function being called is still the one it
+ * was specialized for, rebinding a name deoptimizes the node back to the
+ * generic path. Either way, each node in the tree has a single behavior at
+ * any time, which keeps the calls the JIT sees monomorphic. In {@link
+ * FastMath fast-math mode} numbers are doubles, which the builtins already
+ * compute with directly, so arithmetic and comparisons just call them.
+ *
+ * The body of a function is run with {@link #executeTail(Interpreter)}, which
+ * passes tail position down through {@code do} to the last form. A call of a
+ * function created by {@code define} in tail position returns a {@link
+ * TailCall} for the {@link Lambda} to make, as in the tree-walking
+ * interpreter, so tail-recursive functions run in constant stack.
+ *
+ * Nodes don't hold on to an interpreter or scope, so the node tree of a
+ * function is shared by every call of it. Since nodes rewrite themselves, the
+ * tree is cached by the interpreter (for the function's {@link Layout})
+ * rather than on the AST, which may be run by other interpreters at the same
+ * time.
+ */
+abstract class Node {
+
+    private Node parent;
+
+    /**
+     * Whether this node has been replaced in it's parent. A node can be
+     * replaced by a recursive call while it's still executing in an outer
+     * one, and any node it replaces itself with then is only used by that
+     * execution.
+     */
+    private boolean replaced;
+
+    abstract Object execute(Interpreter interpreter);
+
+    /**
+     * Executes the node in tail position, which may return a {@link TailCall}
+     * instead of making a call.
+     */
+    Object executeTail(Interpreter interpreter) {
+        return execute(interpreter);
+    }
+
+    /**
+     * Compiles the AST to a tree of nodes with a root, which is needed for the
+     * node at the top of the tree to be able to replace itself.
+     */
+    static Root root(Ast ast) {
+        return new Root(create(ast));
+    }
+
+    static Node create(Ast ast) {
+        if (ast instanceof Ast.Term) {
+            Ast.Term term = (Ast.Term) ast;
+            Node[] args = new Node[term.getArgs().size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = create(term.getArgs().get(i));
+            }
+            return new UninitializedCall(term, args);
+        } else if (ast instanceof Ast.Identifier) {
+            return new Variable((Ast.Identifier) ast);
+        } else if (ast instanceof Ast.NumberLiteral) {
+            return new NumberConstant((Ast.NumberLiteral) ast);
+        } else if (ast instanceof Ast.StringLiteral) {
+            return new Constant(((Ast.StringLiteral) ast).getValue());
+        } else {
+            throw new AssertionError(ast.getClass());
+        }
+    }
+
+    /**
+     * Replaces this node with the given node in it's parent, returning the new
+     * node.
+     */
+    final <T extends Node> T replace(T node) {
+        ((Node) node).parent = parent;
+        if (replaced) {
+            ((Node) node).replaced = true;
+        } else {
+            parent.replaceChild(this, node);
+            replaced = true;
+        }
+        return node;
+    }
+
+    void replaceChild(Node child, Node node) {
+        throw new IllegalStateException(getClass().getSimpleName() + " has no children.");
+    }
+
+    final <T extends Node> T adopt(T child) {
+        ((Node) child).parent = this;
+        return child;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+
+    static final class Root extends Node {
+
+        private Node child;
+
+        private Root(Node child) {
+            this.child = adopt(child);
+        }
+
+        Node getChild() {
+            return child;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return child.execute(interpreter);
+        }
+
+        @Override
+        Object executeTail(Interpreter interpreter) {
+            return child.executeTail(interpreter);
+        }
+
+        @Override
+        void replaceChild(Node child, Node node) {
+            this.child = node;
+        }
+
+    }
+
+    static final class Constant extends Node {
+
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return value;
+        }
+
+    }
+
+    /**
+     * A number literal, whose value depends on whether the interpreter is in
+     * fast-math mode.
+     */
+    static final class NumberConstant extends Node {
+
+        private final Ast.NumberLiteral literal;
+
+        NumberConstant(Ast.NumberLiteral literal) {
+            this.literal = literal;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.literal(literal);
+        }
+
+    }
+
+    static final class Variable extends Node {
+
+        private final Ast.Identifier identifier;
+
+        Variable(Ast.Identifier identifier) {
+            this.identifier = identifier;
+        }
+
+        @Override
+        Object execute(Interpreter interpreter) {
+            return interpreter.lookup(identifier.address, identifier.getSymbol());
+        }
+
+    }
+
+    /**
+     * A call of the function named by a term, which looks up the function on
+     * each call (through the term's inline cache) and passes it to the
+     * specialization.
+     */
+    abstract static class Call extends Node {
+
+        final Ast.Term term;
+        final Node[] args;
+
+        Call(Ast.Term term, Node[] args) {
+            this.term = term;
+            this.args = args;
+            for (Node arg : args) {
+                adopt(arg);
+            }
+        }
+
+        @Override
+        final Object execute(Interpreter interpreter) {
+            return call(interpreter, interpreter.lookup(term));
+        }
+
+        @Override
+        final Object executeTail(Interpreter interpreter) {
+            return tail(interpreter, interpreter.lookup(term));
+        }
+
+        abstract Object call(Interpreter interpreter, Function<List<Ast>, Object> function);
+
+        /**
+         * Calls the function in tail position, which is the same as {@link
+         * #call(Interpreter, Function)} unless the node makes tail calls.
+         */
+        Object tail(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            return call(interpreter, function);
+        }
+
+        @Override
+        final void replaceChild(Node child, Node node) {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] == child) {
+                    args[i] = node;
+                    return;
+                }
+            }
+            replaceOther(child, node);
+        }
+
+        void replaceOther(Node child, Node node) {
+            throw new IllegalStateException(child + " is not a child of " + this + ".");
+        }
+
+        final Object[] evaluate(Interpreter interpreter) {
+            Object[] values = new Object[args.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = args[i].execute(interpreter);
+            }
+            return values;
+        }
+
+        /**
+         * Replaces this node with the generic path, for when the function
+         * isn't the one this node was specialized for.
+         */
+        final Object deoptimize(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            return replace(new GenericCall(term, args)).call(interpreter, function);
+        }
+
+        static boolean is(Function<List<Ast>, Object> function, String name) {
+            return function instanceof Builtin && ((Builtin) function).getName().equals(name);
+        }
+
+    }
+
+    static final class UninitializedCall extends Call {
+
+        UninitializedCall(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            return replace(specialize(interpreter, function)).call(interpreter, function);
+        }
+
+        @Override
+        Object tail(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            return replace(specialize(interpreter, function)).tail(interpreter, function);
+        }
+
+        private Call specialize(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (function instanceof Lambda) {
+                return new LambdaCall(term, args);
+            } else if (!(function instanceof Builtin)) {
+                return new GenericCall(term, args);
+            }
+            Builtin builtin = (Builtin) function;
+            List<Ast> asts = term.getArgs();
+            boolean exact = !interpreter.isFastMath();
+            switch (builtin.getName()) {
+                case "+":
+                case "*":
+                    return exact ? new LongArithmetic(term, args, builtin.getName()) : new BuiltinCall(term, args);
+                case "-":
+                    return exact && args.length > 0 ? new LongArithmetic(term, args, "-") : new BuiltinCall(term, args);
+                case "<":
+                case "<=":
+                case ">":
+                case ">=":
+                    return exact ? new DecimalComparison(term, args, builtin.getName()) : new BuiltinCall(term, args);
+                case "and":
+                    return new And(term, args);
+                case "or":
+                    return new Or(term, args);
+                case "do":
+                    return new Do(term, args);
+                case "while":
+                    return args.length > 0 ? new While(term, args) : new GenericCall(term, args);
+                case "for":
+                    if (asts.size() >= 2 && asts.get(0) instanceof Ast.Term && ((Ast.Term) asts.get(0)).getArgs().size() == 1) {
+                        return new For(term, args);
+                    }
+                    return new GenericCall(term, args);
+                case "define":
+                    return asts.size() == 2 && asts.get(0) instanceof Ast.Identifier ? new Define(term, args) : new GenericCall(term, args);
+                case "set!":
+                    return asts.size() == 2 && asts.get(0) instanceof Ast.Identifier ? new Set(term, args) : new GenericCall(term, args);
+                default:
+                    return builtin.isStrict() ? new BuiltinCall(term, args) : new GenericCall(term, args);
+            }
+        }
+
+    }
+
+    /**
+     * Calls the function the same way as the tree-walking interpreter, with
+     * the unevaluated arguments. This is the fallback for everything the
+     * other nodes don't specialize, so it never rewrites itself.
+     */
+    static final class GenericCall extends Call {
+
+        GenericCall(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            return interpreter.apply(function, term);
+        }
+
+    }
+
+    static final class BuiltinCall extends Call {
+
+        BuiltinCall(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!(function instanceof Builtin) || !((Builtin) function).isStrict()) {
+                return deoptimize(interpreter, function);
+            }
+            Builtin builtin = (Builtin) function;
+            return compute(builtin, builtin.wrapsArguments() ? wrapped(interpreter) : evaluate(interpreter));
+        }
+
+        private Object[] wrapped(Interpreter interpreter) {
+            try {
+                return evaluate(interpreter);
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            }
+        }
+
+        Object compute(Builtin builtin, Object[] values) {
+            return builtin.call(values);
+        }
+
+    }
+
+    static final class LambdaCall extends Call {
+
+        LambdaCall(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!(function instanceof Lambda)) {
+                return deoptimize(interpreter, function);
+            }
+            return ((Lambda) function).call(evaluate(interpreter));
+        }
+
+        @Override
+        Object tail(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!(function instanceof Lambda) || ((Lambda) function).getInterpreter() != interpreter) {
+                return call(interpreter, function);
+            }
+            return new TailCall((Lambda) function, evaluate(interpreter), false);
+        }
+
+    }
+
+    /**
+     * {@code +}, {@code -} and {@code *} on integers that fit in a long.
+     */
+    static final class LongArithmetic extends Call {
+
+        private final String name;
+
+        LongArithmetic(Ast.Term term, Node[] args, String name) {
+            super(term, args);
+            this.name = name;
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, name)) {
+                return deoptimize(interpreter, function);
+            }
+            Object[] values = evaluate(interpreter);
+            try {
+                long result = name.equals("*") ? 1 : 0;
+                for (int i = 0; i < values.length; i++) {
+                    if (!isSmall(values[i])) {
+                        return replace(new DecimalArithmetic(term, args, name)).compute((Builtin) function, values);
+                    }
+                    long value = ((BigDecimal) values[i]).longValue();
+                    if (name.equals("+")) {
+                        result = Math.addExact(result, value);
+                    } else if (name.equals("*")) {
+                        result = Math.multiplyExact(result, value);
+                    } else if (i == 0 && values.length > 1) {
+                        result = value;
+                    } else {
+                        result = Math.subtractExact(result, value);
+                    }
+                }
+                return BigDecimal.valueOf(result);
+            } catch (ArithmeticException e) {
+                return replace(new DecimalArithmetic(term, args, name)).compute((Builtin) function, values);
+            }
+        }
+
+        /**
+         * Returns whether the value is an integer whose unscaled value fits
+         * in a long, which is guaranteed for up to 18 digits.
+         */
+        private static boolean isSmall(Object value) {
+            return value instanceof BigDecimal && Numbers.isSmall((BigDecimal) value);
+        }
+
+    }
+
+    /**
+     * {@code +}, {@code -} and {@code *} on {@link BigDecimal}s, without the
+     * type checks of the builtin.
+     */
+    static final class DecimalArithmetic extends Call {
+
+        private final String name;
+
+        DecimalArithmetic(Ast.Term term, Node[] args, String name) {
+            super(term, args);
+            this.name = name;
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, name)) {
+                return deoptimize(interpreter, function);
+            }
+            Builtin builtin = (Builtin) function;
+            return compute(builtin, builtin.wrapsArguments() ? wrapped(interpreter) : evaluate(interpreter));
+        }
+
+        private Object[] wrapped(Interpreter interpreter) {
+            try {
+                return evaluate(interpreter);
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            }
+        }
+
+        Object compute(Builtin builtin, Object[] values) {
+            BigDecimal result = name.equals("*") ? BigDecimal.ONE : BigDecimal.ZERO;
+            for (int i = 0; i < values.length; i++) {
+                if (!(values[i] instanceof BigDecimal)) {
+                    return replace(new BuiltinCall(term, args)).compute(builtin, values);
+                }
+                BigDecimal value = (BigDecimal) values[i];
+                if (name.equals("+")) {
+                    result = result.add(value);
+                } else if (name.equals("*")) {
+                    result = result.multiply(value);
+                } else if (i == 0 && values.length > 1) {
+                    result = value;
+                } else {
+                    result = result.subtract(value);
+                }
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * {@code <}, {@code <=}, {@code >} and {@code >=} on {@link BigDecimal}s,
+     * without the type checks (and list) of the builtin.
+     */
+    static final class DecimalComparison extends Call {
+
+        private final String name;
+
+        DecimalComparison(Ast.Term term, Node[] args, String name) {
+            super(term, args);
+            this.name = name;
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, name)) {
+                return deoptimize(interpreter, function);
+            }
+            Object[] values = evaluate(interpreter);
+            for (Object value : values) {
+                if (!(value instanceof BigDecimal)) {
+                    return replace(new BuiltinCall(term, args)).compute((Builtin) function, values);
+                }
+            }
+            for (int i = 0; i < values.length - 1; i++) {
+                int comparison = Numbers.compare((BigDecimal) values[i], (BigDecimal) values[i + 1]);
+                boolean holds;
+                switch (name) {
+                    case "<": holds = comparison < 0; break;
+                    case "<=": holds = comparison <= 0; break;
+                    case ">": holds = comparison > 0; break;
+                    default: holds = comparison >= 0;
+                }
+                if (!holds) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    static final class And extends Call {
+
+        And(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, "and")) {
+                return deoptimize(interpreter, function);
+            }
+            try {
+                for (Node arg : args) {
+                    if (!Interpreter.requireType(Boolean.class, arg.execute(interpreter))) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            }
+        }
+
+    }
+
+    static final class Or extends Call {
+
+        Or(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, "or")) {
+                return deoptimize(interpreter, function);
+            }
+            for (Node arg : args) {
+                if (Interpreter.requireType(Boolean.class, arg.execute(interpreter))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    static final class Do extends Call {
+
+        Do(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            return run(interpreter, function, false);
+        }
+
+        @Override
+        Object tail(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            return run(interpreter, function, true);
+        }
+
+        /**
+         * Runs the block, executing the last argument in tail position if the
+         * block is, in which case a {@link TailCall} it returns is marked as
+         * wrapped.
+         */
+        private Object run(Interpreter interpreter, Function<List<Ast>, Object> function, boolean tail) {
+            if (!is(function, "do")) {
+                return deoptimize(interpreter, function);
+            }
+            Scope current = interpreter.scope;
+            try {
+                interpreter.scope = interpreter.block(term);
+                Object result = null;
+                for (int i = 0; i < args.length; i++) {
+                    result = tail && i == args.length - 1 ? args[i].executeTail(interpreter) : args[i].execute(interpreter);
+                }
+                if (result == null) {
+                    return Interpreter.VOID;
+                } else if (result instanceof TailCall) {
+                    ((TailCall) result).wrap();
+                }
+                return result;
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            } finally {
+                interpreter.scope = current;
+            }
+        }
+
+    }
+
+    static final class While extends Call {
+
+        While(Ast.Term term, Node[] args) {
+            super(term, args);
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, "while")) {
+                return deoptimize(interpreter, function);
+            }
+            Scope current = interpreter.scope;
+            interpreter.scope = interpreter.block(term);
+            try {
+                while (Interpreter.requireType(Boolean.class, args[0].execute(interpreter)) == Boolean.TRUE) {
+                    for (int i = 1; i < args.length; i++) {
+                        args[i].execute(interpreter);
+                    }
+                }
+            } finally {
+                interpreter.scope = current;
+            }
+            return Interpreter.VOID;
+        }
+
+    }
+
+    static final class For extends Call {
+
+        private final Symbol variable;
+        private Node list;
+
+        For(Ast.Term term, Node[] args) {
+            super(term, args);
+            Ast.Term variable = (Ast.Term) term.getArgs().get(0);
+            this.variable = variable.getSymbol();
+            this.list = adopt(create(variable.getArgs().get(0)));
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, "for")) {
+                return deoptimize(interpreter, function);
+            }
+            Scope current = interpreter.scope;
+            try {
+                List<?> values = Interpreter.requireType(List.class, list.execute(interpreter));
+                interpreter.scope = interpreter.block(term);
+                interpreter.scope.define(variable, Interpreter.VOID);
+                for (Object value : values) {
+                    interpreter.scope.set(variable, value);
+                    for (int i = 1; i < args.length; i++) {
+                        args[i].execute(interpreter);
+                    }
+                }
+                return Interpreter.VOID;
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            } finally {
+                interpreter.scope = current;
+            }
+        }
+
+        @Override
+        void replaceOther(Node child, Node node) {
+            if (child == list) {
+                list = node;
+            } else {
+                super.replaceOther(child, node);
+            }
+        }
+
+    }
+
+    static final class Define extends Call {
+
+        private final Symbol name;
+
+        Define(Ast.Term term, Node[] args) {
+            super(term, args);
+            this.name = ((Ast.Identifier) term.getArgs().get(0)).getSymbol();
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, "define")) {
+                return deoptimize(interpreter, function);
+            }
+            try {
+                interpreter.scope.define(name, args[1].execute(interpreter));
+                return Interpreter.VOID;
+            } catch (Exception e) {
+                throw new EvalException(e.getMessage());
+            }
+        }
+
+    }
+
+    static final class Set extends Call {
+
+        private final Symbol name;
+
+        Set(Ast.Term term, Node[] args) {
+            super(term, args);
+            this.name = ((Ast.Identifier) term.getArgs().get(0)).getSymbol();
+        }
+
+        @Override
+        Object call(Interpreter interpreter, Function<List<Ast>, Object> function) {
+            if (!is(function, "set!")) {
+                return deoptimize(interpreter, function);
+            }
+            interpreter.scope.set(name, args[1].execute(interpreter));
+            return Interpreter.VOID;
+        }
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package plc.interpreter;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Long fast paths for the division and comparison builtins, which keep
+ * integers that fit in a long out of {@link BigDecimal} arithmetic where it's
+ * cheaper.
+ *
+ * Numbers are always {@link BigDecimal}s, since that is what literals, the
+ * results of the builtins and the values seen by Java callers are (and {@link
+ * BigDecimal#equals(Object)} depends on the scale, so nothing else can stand
+ * in for them). Keeping small integers as {@link Long}s instead would leak
+ * into the results of {@link Interpreter#run}, the values in scopes and lists,
+ * and the class check of {@code list}, none of which convert their values.
+ * So every arithmetic result is still a new {@link BigDecimal}, and this only
+ * saves the work of computing it.
+ *
+ * A {@link BigDecimal} already keeps it's unscaled value in a long when it
+ * fits, and only promotes it to a {@link java.math.BigInteger} when it
+ * doesn't, so addition, subtraction and multiplication are left to it (a
+ * separate long path measured slower). Division (with it's rounding) and
+ * comparison are computed with longs when both numbers are small integers,
+ * and otherwise promoted to the {@link BigDecimal} method. Each method returns
+ * exactly what the builtins computed with {@link BigDecimal} alone.
+ */
+final class Numbers {
+
+    private Numbers() {}
+
+    /**
+     * Returns whether the number is an integer whose unscaled value fits in a
+     * long, which is guaranteed for up to 18 digits.
+     */
+    static boolean isSmall(BigDecimal number) {
+        return number.scale() == 0 && number.precision() <= 18;
+    }
+
+    /**
+     * Returns {@code ZERO.add(number)}, which the sum of the builtin {@code +}
+     * starts with. That is the number itself unless it's scale is negative.
+     */
+    static BigDecimal plus(BigDecimal number) {
+        return number.scale() >= 0 ? number : BigDecimal.ZERO.add(number);
+    }
+
+    /**
+     * Divides with {@link RoundingMode#HALF_EVEN}, so the result has the scale
+     * of the first number. Division by zero is left to {@link BigDecimal},
+     * which throws.
+     */
+    static BigDecimal divide(BigDecimal first, BigDecimal second) {
+        if (isSmall(first) && isSmall(second) && second.signum() != 0) {
+            long dividend = first.longValue(), divisor = second.longValue();
+            long quotient = dividend / divisor, remainder = dividend % divisor;
+            if (remainder != 0) {
+                long twice = 2 * Math.abs(remainder);
+                int comparison = Long.compare(twice, Math.abs(divisor));
+                if (comparison > 0 || comparison == 0 && (quotient & 1) != 0) {
+                    quotient += (dividend ^ divisor) < 0 ? -1 : 1;
+                }
+            }
+            return BigDecimal.valueOf(quotient);
+        }
+        return first.divide(second, RoundingMode.HALF_EVEN);
+    }
+
+    static int compare(BigDecimal first, BigDecimal second) {
+        if (isSmall(first) && isSmall(second)) {
+            return Long.compare(first.longValue(), second.longValue());
+        }
+        return first.compareTo(second);
+    }
+
+}
@@ -0,0 +1,145 @@
+package plc.interpreter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of parsed sources, so that evaluating the same source again
+ * skips the lexer and parser entirely.
+ *
+ * Entries are keyed by a 64-bit hash of the source text (see {@link
+ * Source#hash(CharSequence)}), and a hit is only returned if the full text
+ * also matches, so hash collisions can't return the wrong AST. The least
+ * recently used entries are evicted once either the number of entries or their
+ * total weight (the length of their sources) exceeds the configured limits.
+ *
+ * The cache is thread-safe. The returned {@link Ast}s are shared between all
+ * callers, and as with any AST they must not be modified.
+ */
+public final class ParseCache {
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final LinkedHashMap<Key, Ast> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public ParseCache(int maxEntries, long maxWeight) {
+        if (maxEntries < 0 || maxWeight < 0) {
+            throw new IllegalArgumentException("Expected non-negative limits, received " + maxEntries + " and " + maxWeight + ".");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the AST of the given source, parsing it with {@link
+     * Parser#parse(CharSequence)} only if it isn't already cached. Parse
+     * errors are not cached.
+     */
+    public Ast parse(CharSequence input) {
+        Key key = new Key(input);
+        synchronized (this) {
+            Ast ast = entries.get(key);
+            if (ast != null) {
+                hits++;
+                return ast;
+            }
+            misses++;
+        }
+        //Parsing happens outside of the lock so other threads aren't blocked.
+        Ast ast = Parser.parse(input);
+        String source = input.toString();
+        if (source.length() > maxWeight || maxEntries == 0) {
+            return ast;
+        }
+        key = new Key(source, key.hash);
+        synchronized (this) {
+            Ast existing = entries.putIfAbsent(key, ast);
+            if (existing != null) {
+                return existing;
+            }
+            weight += source.length();
+            Iterator<Map.Entry<Key, Ast>> iterator = entries.entrySet().iterator();
+            while (entries.size() > maxEntries || weight > maxWeight) {
+                Key eldest = iterator.next().getKey();
+                iterator.remove();
+                weight -= eldest.source.length();
+                evictions++;
+            }
+            return ast;
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * The key of a cached source, which compares the 64-bit hash before the
+     * full text. Keys used only for lookups may reference a mutable source,
+     * but the keys stored in the cache always hold a copy of the text.
+     */
+    private static final class Key {
+
+        private final CharSequence source;
+        private final long hash;
+
+        private Key(CharSequence source) {
+            this(source, Source.hash(source));
+        }
+
+        private Key(CharSequence source, long hash) {
+            this.source = source;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key) || hash != ((Key) obj).hash) {
+                return false;
+            }
+            CharSequence other = ((Key) obj).source;
+            if (source.length() != other.length()) {
+                return false;
+            }
+            for (int i = 0; i < source.length(); i++) {
+                if (source.charAt(i) != other.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+    }
+
+}
@@ -1,8 +1,18 @@
 package plc.interpreter;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.math.BigDecimal;
+import java.nio.CharBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * The parser takes the sequence of tokens emitted by the lexer and turns that
@@ -15,22 +25,209 @@ import java.util.List;
  *
  * This type of parser is called <em>recursive descent</em>. Each rule in our
  * grammar will have it's own function, and reference to other rules correspond
- * to calling that functions.
+ * to calling that functions. Nested terms are the exception: rather than
+ * recursing, {@link #parseAst()} keeps the terms it is inside of on an explicit
+ * stack so that deeply nested input doesn't overflow the Java stack.
+ *
+ * Tokens are pulled from the {@link Lexer} on demand as the parser needs them,
+ * so only a few lookahead tokens are held in memory at any time rather than
+ * the token list for the whole input. These are kept in a {@link TokenBuffer},
+ * so no {@link Token} objects are created while parsing.
+ *
+ * Since top-level forms are independent, {@link #parseParallel(CharSequence)}
+ * can also split the input into forms with a quick bracket scan and parse them
+ * concurrently on a {@link ForkJoinPool}.
  */
 public final class Parser {
 
+    /**
+     * The number of characters below which {@link ParseTask} parses its forms
+     * sequentially instead of splitting them further.
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 14;
+
     private final TokenStream tokens;
 
-    private Parser(String input) {
-        tokens = new TokenStream(Lexer.lex(input));
+    private Parser(CharSequence input) {
+        tokens = new TokenStream(input);
     }
 
     /**
      * Parses the input and returns the AST
      */
-    public static Ast parse(String input) {
+    public static Ast parse(CharSequence input) {
         return new Parser(input).parse();
     }
+
+    /**
+     * Parses the file at the given path, which is memory-mapped by {@link
+     * Source#map(Path)} rather than read into a string.
+     */
+    public static Ast parse(Path path) throws IOException {
+        return parse(Source.map(path));
+    }
+
+    /**
+     * Parses the remaining input of the given reader.
+     */
+    public static Ast parse(Reader reader) throws IOException {
+        return parse(Source.read(reader));
+    }
+
+    /**
+     * Returns an iterator which parses the top-level forms of the input one at
+     * a time, as they are requested. Unlike {@link #parse(CharSequence)}, a
+     * {@link ParseException} is only thrown once the invalid form is reached.
+     */
+    public static Iterator<Ast> forms(CharSequence input) {
+        Parser parser = new Parser(input);
+        return new Iterator<Ast>() {
+
+            @Override
+            public boolean hasNext() {
+                return parser.tokens.has(0);
+            }
+
+            @Override
+            public Ast next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return parser.parseAst();
+            }
+
+        };
+    }
+
+    /**
+     * Parses the input like {@link #parse(CharSequence)}, but parses groups of
+     * top-level forms in parallel on the common {@link ForkJoinPool}.
+     */
+    public static Ast parseParallel(CharSequence input) {
+        return parseParallel(input, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parses the input like {@link #parse(CharSequence)}, but parses groups of
+     * top-level forms in parallel on the given pool.
+     *
+     * Errors are always reported by re-parsing the input sequentially, so the
+     * exception (and in particular it's index) is the same as with {@link
+     * #parse(CharSequence)}.
+     */
+    public static Ast parseParallel(CharSequence input, ForkJoinPool pool) {
+        int[] ends = scanForms(input);
+        if (ends == null) {
+            return parse(input);
+        }
+        try {
+            return new Ast.Term("source", pool.invoke(new ParseTask(input, ends, 0, ends.length)));
+        } catch (ParseException e) {
+            return parse(input);
+        }
+    }
+
+    /**
+     * Scans the input for the end of each top-level form using {@link
+     * #scanForm(CharSequence, int)}, where the last end is always the end of
+     * the input. Returns null if the brackets are unbalanced or a string is
+     * unterminated, in which case the input will fail to parse anyways.
+     */
+    private static int[] scanForms(CharSequence input) {
+        int[] ends = new int[16];
+        int count = 0;
+        int end = 0;
+        do {
+            end = scanForm(input, end);
+            if (end < 0) {
+                return null;
+            } else if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            ends[count++] = end;
+        } while (end < input.length());
+        return Arrays.copyOf(ends, count);
+    }
+
+    /**
+     * Scans from the given index (which must be between top-level forms) to
+     * the end of the next top-level form, skipping brackets inside of string
+     * literals. Any atoms before the form are included with it. Returns the
+     * end of the input if there are no more forms, or -1 if the brackets are
+     * unbalanced or a string is unterminated.
+     */
+    static int scanForm(CharSequence input, int start) {
+        int depth = 0;
+        for (int i = start; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '"') {
+                i++;
+                while (i < input.length() && input.charAt(i) != '"') {
+                    i += input.charAt(i) == '\\' ? 2 : 1;
+                }
+                if (i >= input.length()) {
+                    return -1;
+                }
+            } else if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                if (--depth < 0) {
+                    return -1;
+                } else if (depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        return depth == 0 ? input.length() : -1;
+    }
+
+    /**
+     * Parses the top-level forms between the given indices of the input, which
+     * must be between top-level forms (such as those from {@link
+     * #scanForm(CharSequence, int)}). The indices of any errors are relative
+     * to {@code start}.
+     */
+    static List<Ast> parseForms(CharSequence input, int start, int end) {
+        return ((Ast.Term) parse(CharBuffer.wrap(input, start, end))).getArgs();
+    }
+
+    /**
+     * Parses the forms ending at {@code ends[from]} through {@code ends[to -
+     * 1]}, splitting them in half while they span more than {@link
+     * #PARALLEL_THRESHOLD} characters.
+     */
+    @SuppressWarnings("serial")
+    private static final class ParseTask extends RecursiveTask<List<Ast>> {
+
+        private final CharSequence input;
+        private final int[] ends;
+        private final int from;
+        private final int to;
+
+        private ParseTask(CharSequence input, int[] ends, int from, int to) {
+            this.input = input;
+            this.ends = ends;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Ast> compute() {
+            int start = from == 0 ? 0 : ends[from - 1];
+            int end = ends[to - 1];
+            if (to - from == 1 || end - start <= PARALLEL_THRESHOLD) {
+                return parseForms(input, start, end);
+            }
+            int middle = (from + to) >>> 1;
+            ParseTask left = new ParseTask(input, ends, from, middle);
+            left.fork();
+            List<Ast> right = new ParseTask(input, ends, middle, to).compute();
+            List<Ast> forms = new ArrayList<>(left.join());
+            forms.addAll(right);
+            return forms;
+        }
+
+    }
     /**
      * Repeatedly parses a list of ASTs, returning the list as arguments of an
      * {@link Ast.Term} with the identifier {@code "source"}.
@@ -86,31 +283,51 @@ public final class Parser {
      * </pre>
      */
     private Ast parseAst() {
-
-        while(tokens.has(0)) {
-            if (peek(Token.Type.STRING)) {
-                return parseStringLiteral();
-            } else if (peek(Token.Type.NUMBER)) {
-                return parseNumberLiteral();
-            } else if (peek(Token.Type.IDENTIFIER)) {
-                return parseIdentifier();
-            } else if (peek("(") | peek("[")) {
-                return parseTerm();
+        //Terms that are still being parsed, innermost first. Keeping these on
+        //an explicit stack instead of recursing for each nested term means the
+        //nesting depth isn't limited by the Java stack.
+        ArrayDeque<TermFrame> terms = new ArrayDeque<>();
+        while (true) {
+            Ast ast;
+            TermFrame frame = terms.peek();
+            if (frame != null && match(frame.closing)) {
+                terms.pop();
+                ast = new Ast.Term(frame.name, frame.args);
+            } else {
+                if (frame != null && peek(frame.wrongClosing)) {
+                    throw new ParseException("Expected " + frame.closing + "as closing operator, got " + frame.wrongClosing , tokens.index);
+                } else if (!tokens.has(0)) {
+                    throw new ParseException("Closing parenthesis before opening" , tokens.index );
+                }
+                if (peek(Token.Type.STRING)) {
+                    ast = parseStringLiteral();
+                } else if (peek(Token.Type.NUMBER)) {
+                    ast = parseNumberLiteral();
+                } else if (peek(Token.Type.IDENTIFIER)) {
+                    ast = parseIdentifier();
+                } else if (peek("(") | peek("[")) {
+                    terms.push(parseTerm());
+                    continue;
+                } else {
+                    throw new ParseException("Closing parenthesis before opening" , tokens.index );
+                }
             }
-            throw new ParseException("Closing parenthesis before opening" , tokens.index );
+            if (terms.isEmpty()) {
+                return ast;
+            }
+            terms.peek().args.add(ast);
         }
-
-        throw new ParseException("Closing parenthesis before opening" , tokens.index );
-
     }
 
-//gets a list adds term.
-    private Ast parseTerm() {
-        List<Ast> args = new ArrayList<>();
+    /**
+     * Parses the opening bracket and name of a term, returning the frame that
+     * {@link #parseAst()} collects the arguments of the term into.
+     */
+    private TermFrame parseTerm() {
         String term;
 
         String wrongClosing;
-        String operator = tokens.get(0).getLiteral();
+        String operator = tokens.literal(0);
         if(match(Token.Type.OPERATOR)) {
             operator = operator.compareTo("(") == 0 ? ")" : "]";
             wrongClosing = operator.compareTo(")") == 0 ? "]" : ")";
@@ -120,24 +337,36 @@ public final class Parser {
             if(!peek(Token.Type.IDENTIFIER)){
                 throw new ParseException("Was expecting an Identifier" , tokens.index);
             }
-            term = tokens.get(0).getLiteral();
+            term = tokens.literal(0);
 
             tokens.advance();
-
-            while(!match(operator) ) {
-                if(peek(wrongClosing)){
-                    throw new ParseException("Expected " + operator + "as closing operator, got " + wrongClosing , tokens.index);
-                }
-                args.add(parseAst());
-            }
-            return new Ast.Term(term , args );
+            return new TermFrame(term, operator, wrongClosing);
         }
         throw new ParseException("Expected an opening parenthesis " , tokens.index);
 
     }
+
+    /**
+     * A term whose arguments are still being parsed.
+     */
+    private static final class TermFrame {
+
+        private final String name;
+        private final String closing;
+        private final String wrongClosing;
+        private final List<Ast> args = new ArrayList<>();
+
+        private TermFrame(String name, String closing, String wrongClosing) {
+            this.name = name;
+            this.closing = closing;
+            this.wrongClosing = wrongClosing;
+        }
+
+    }
+
 //this parses identifier
     private Ast parseIdentifier() {
-        Ast ident = new Ast.Identifier(tokens.get(0).getLiteral());
+        Ast ident = new Ast.Identifier(tokens.literal(0));
         tokens.advance();
         return ident;
 
@@ -153,29 +382,16 @@ public final class Parser {
     }
 
     private Ast parseNumberLiteral() {
-        BigDecimal big = new BigDecimal(tokens.get(0).getLiteral());
+        BigDecimal big = new BigDecimal(tokens.literal(0));
         Ast number = new Ast.NumberLiteral(big);
         tokens.advance();
         return number;
     }
 
     private Ast parseStringLiteral() {
-
-        //this may still need work - october 27th
-
-        String text = tokens.get(0).getLiteral();
-        text = text.replaceAll("\\\\\"" , "\"");
-        text = text.replaceAll("\"", "");
-        text = text.replaceAll("\\\\n", "\n" );
-        text = text.replaceAll("\\\\r", "\r" );
-        text = text.replaceAll("\\\\t", "\t" );
-        text = text.replaceAll("\\\\b" , "\b");
-        text.replaceAll("\\\\'" , "\'");
-
-        Ast string = new Ast.StringLiteral(text);
+        Ast string = new Ast.StringLiteral(tokens.string(0));
         tokens.advance();
         return string;
-
     }
 
     /**
@@ -193,15 +409,17 @@ public final class Parser {
             int index = 0;
             for (int i = 0; i < patterns.length; i++) {
 //            if(patterns[i] instanceof Token.Type){
-                if (patterns[i] == tokens.get(index).getType()) {
+                if (patterns[i] == tokens.type(index)) {
                     index++;
-                } else if (patterns[i].toString().equals(tokens.get(index).getLiteral())) {
+                } else if (tokens.literalEquals(index, patterns[i].toString())) {
                     index++;
                 } else {
                     return false;
                 }
             }
             return true;
+        }catch (ParseException e){
+            throw e;
         }catch (Exception e){
             throw new ParseException(e.getMessage(), tokens.index);
         }
@@ -212,55 +430,87 @@ public final class Parser {
      * and advances the token stream.
      */
     private boolean match(Object... patterns) {
-        try {
-            int index = tokens.index;
-
-            for (Object type : patterns) {
-                if (tokens.has(0) && peek(type)) {
-                    tokens.advance();
-                } else {
-                    tokens.index = index;
-                    return false;
-                }
-            }
-            return true;
-        }catch (Exception e) {
-            throw new ParseException(e.getMessage(), tokens.index);
+        if (!tokens.has(patterns.length - 1) || !peek(patterns)) {
+            return false;
         }
-
+        for (int i = 0; i < patterns.length; i++) {
+            tokens.advance();
+        }
+        return true;
     }
 
+    /**
+     * A window over the tokens pulled from the lexer. Tokens that have been
+     * advanced past are removed from the buffer, which only grows if the
+     * parser peeks further ahead.
+     */
     private static final class TokenStream {
 
-        private final List<Token> tokens;
+        private final Lexer lexer;
+        private final TokenBuffer buffer;
         private int index = 0;
 
-        private TokenStream(List<Token> tokens) {
-            this.tokens = tokens;
+        private TokenStream(CharSequence input) {
+            lexer = new Lexer(input);
+            buffer = new TokenBuffer(input);
         }
 
         /**
-         * Returns true if there is a token at index + offset.
+         * Returns true if there is a token at index + offset, pulling tokens
+         * from the lexer as needed.
          */
         public boolean has(int offset) {
-            return index + offset < tokens.size(); //TODO
+            while (buffer.size() <= offset && lexer.lexInto(buffer)) {}
+            return offset < buffer.size();
+        }
+
+        /**
+         * Gets the type of the token at index + offset.
+         */
+        public Token.Type type(int offset) {
+            require(offset);
+            return buffer.getType(offset);
+        }
+
+        /**
+         * Gets the literal of the token at index + offset.
+         */
+        public String literal(int offset) {
+            require(offset);
+            return buffer.getLiteral(offset);
         }
 
         /**
-         * Gets the token at index + offset.
+         * Gets the decoded value of the string literal at index + offset.
          */
-        public Token get(int offset) {
-            return tokens.get(index + offset); //TODO
+        public String string(int offset) {
+            require(offset);
+            return buffer.getString(offset);
+        }
+
+        /**
+         * Returns true if the literal of the token at index + offset equals
+         * the given string.
+         */
+        public boolean literalEquals(int offset, String literal) {
+            require(offset);
+            return buffer.literalEquals(offset, literal);
         }
 
         /**
          * Advances to the next token, incrementing the index.
          */
         public void advance() {
-            if(has(0))
+            if (has(0)) {
+                buffer.removeFirst();
                 index++;
+            }
+        }
 
-             //TODO
+        private void require(int offset) {
+            if (!has(offset)) {
+                throw new IndexOutOfBoundsException("Unexpected end of input at token " + (index + offset) + ".");
+            }
         }
 
     }
@@ -0,0 +1,215 @@
+package plc.interpreter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the variable references in the body of a function to {@link
+ * Address}es, so that the interpreter can access variables by their index in
+ * a scope rather than looking up their name in each scope.
+ *
+ * The resolver runs once for each function definition (the {@link Layout} is
+ * cached on the function's {@code (name params...)} term) and annotates the
+ * {@link Ast.Identifier}s and {@link Ast.Term} call sites of the body. Nodes
+ * shared by an {@link AstInterner} are copied rather than annotated, and the
+ * layout holds the resolved body. The
+ * frame of the function has a slot for each parameter and each name defined
+ * directly in the body, and each block ({@code do}, {@code while} and {@code
+ * for}) is given a layout with a slot for each name it defines. Blocks which
+ * don't define anything don't need a scope at all, so their layout is {@link
+ * #EMPTY} and they aren't counted in the depth of an address. Nested function
+ * definitions are resolved separately when they are evaluated.
+ *
+ * Addresses are only a hint: if the scopes at runtime don't match what the
+ * resolver expected (for example, if {@code do} has been redefined), the
+ * interpreter falls back to looking up the name.
+ */
+final class Resolver {
+
+    /**
+     * The layout of blocks which don't define any names.
+     */
+    static final Layout EMPTY = new Layout(new LinkedHashSet<>(), 0, null);
+
+    /**
+     * The layouts of the scopes enclosing the current AST, innermost first,
+     * ending with the frame of the function.
+     */
+    private final ArrayDeque<Layout> scopes = new ArrayDeque<>();
+
+    /**
+     * Resolves the body of a function with the given parameters, returning the
+     * layout of it's frames.
+     */
+    static Layout resolve(List<String> params, Ast body) {
+        Set<String> names = new LinkedHashSet<>(params);
+        collect(body, names);
+        Layout layout = new Layout(names, params.size(), body);
+        Resolver resolver = new Resolver();
+        resolver.scopes.push(layout);
+        layout.setBody(resolver.resolve(body));
+        return layout;
+    }
+
+    /**
+     * Resolves the AST, returning it with it's annotations. Nodes created by
+     * an {@link AstInterner} can be at several positions (even in the same
+     * body) which need different addresses, so they are copied instead of
+     * being annotated, along with the terms containing them.
+     */
+    private Ast resolve(Ast ast) {
+        if (ast instanceof Ast.Identifier) {
+            Ast.Identifier identifier = (Ast.Identifier) ast;
+            if (identifier.interned) {
+                identifier = new Ast.Identifier(identifier.getName());
+            }
+            identifier.address = address(identifier.getSymbol());
+            return identifier;
+        } else if (!(ast instanceof Ast.Term)) {
+            return ast;
+        }
+        Ast.Term term = (Ast.Term) ast;
+        List<Ast> args = term.getArgs();
+        Address address = address(term.getSymbol());
+        Layout layout = null;
+        switch (term.getName()) {
+            case "define":
+                if (args.size() == 2 && args.get(0) instanceof Ast.Identifier) {
+                    args = resolve(args, 1, 2);
+                }
+                break;
+            case "set!":
+                if (args.size() == 2) {
+                    args = resolve(args, 1, 2);
+                }
+                break;
+            case "do":
+            case "while":
+                layout = block(args, new LinkedHashSet<>());
+                args = resolve(args, 0, args.size(), layout);
+                break;
+            case "for":
+                Set<String> names = new LinkedHashSet<>();
+                if (!args.isEmpty() && args.get(0) instanceof Ast.Term) {
+                    Ast.Term variable = (Ast.Term) args.get(0);
+                    List<Ast> resolved = resolve(variable.getArgs(), 0, variable.getArgs().size());
+                    args = replace(args, 0, copy(variable, resolved));
+                    names.add(variable.getName());
+                }
+                int first = Math.min(1, args.size());
+                layout = block(args.subList(first, args.size()), names);
+                args = resolve(args, first, args.size(), layout);
+                break;
+            default:
+                args = resolve(args, 0, args.size());
+        }
+        term = copy(term, args);
+        term.address = address;
+        if (layout != null) {
+            term.layout = layout;
+        }
+        return term;
+    }
+
+    /**
+     * Resolves the arguments from start to end, returning the same list if
+     * none of them were copied.
+     */
+    private List<Ast> resolve(List<Ast> args, int start, int end) {
+        for (int i = start; i < end; i++) {
+            args = replace(args, i, resolve(args.get(i)));
+        }
+        return args;
+    }
+
+    /**
+     * Resolves the arguments from start to end in the scope of a block with
+     * the given layout.
+     */
+    private List<Ast> resolve(List<Ast> args, int start, int end, Layout layout) {
+        if (layout == EMPTY) {
+            return resolve(args, start, end);
+        }
+        scopes.push(layout);
+        try {
+            return resolve(args, start, end);
+        } finally {
+            scopes.pop();
+        }
+    }
+
+    /**
+     * Returns the layout of a block with the given arguments, which defines
+     * the given names as well as the names defined by the arguments.
+     */
+    private static Layout block(List<Ast> args, Set<String> names) {
+        args.forEach(arg -> collect(arg, names));
+        return names.isEmpty() ? EMPTY : new Layout(names, 0, null);
+    }
+
+    private static List<Ast> replace(List<Ast> args, int index, Ast arg) {
+        if (args.get(index) == arg) {
+            return args;
+        }
+        List<Ast> replaced = new ArrayList<>(args);
+        replaced.set(index, arg);
+        return Collections.unmodifiableList(replaced);
+    }
+
+    /**
+     * Returns the term with the given arguments, which is the term itself
+     * unless it is interned or it's arguments were copied.
+     */
+    private static Ast.Term copy(Ast.Term term, List<Ast> args) {
+        return term.interned || args != term.getArgs() ? new Ast.Term(term.getName(), args) : term;
+    }
+
+    private Address address(Symbol name) {
+        int depth = 0;
+        for (Layout layout : scopes) {
+            int slot = layout.indexOf(name);
+            if (slot >= 0) {
+                return new Address(layout, depth, slot);
+            }
+            depth++;
+        }
+        return new Address(scopes.getLast(), depth - 1, -1);
+    }
+
+    /**
+     * Collects the names defined by the AST into the current scope, which does
+     * not include the contents of forms that create their own scope.
+     */
+    private static void collect(Ast ast, Set<String> names) {
+        if (!(ast instanceof Ast.Term)) {
+            return;
+        }
+        Ast.Term term = (Ast.Term) ast;
+        List<Ast> args = term.getArgs();
+        switch (term.getName()) {
+            case "define":
+                if (!args.isEmpty() && args.get(0) instanceof Ast.Identifier) {
+                    names.add(((Ast.Identifier) args.get(0)).getName());
+                    args.subList(1, args.size()).forEach(arg -> collect(arg, names));
+                } else if (!args.isEmpty() && args.get(0) instanceof Ast.Term) {
+                    names.add(((Ast.Term) args.get(0)).getName());
+                }
+                break;
+            case "do":
+            case "while":
+                break;
+            case "for":
+                if (!args.isEmpty() && args.get(0) instanceof Ast.Term) {
+                    ((Ast.Term) args.get(0)).getArgs().forEach(arg -> collect(arg, names));
+                }
+                break;
+            default:
+                args.forEach(arg -> collect(arg, names));
+        }
+    }
+
+}
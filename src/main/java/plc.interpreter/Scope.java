@@ -6,10 +6,26 @@ import java.util.Map;
 public final class Scope {
 
     private final Scope parent;
-    private final Map<String, Object> map = new HashMap<>();
+
+    /**
+     * Scopes created for function calls and blocks in a function body store
+     * the names resolved by the {@link Resolver} in slots, described by the
+     * layout, where an empty (null) slot is a name that hasn't been defined
+     * yet. Any other names are stored in cells in the map, which is only
+     * created once it's needed.
+     */
+    private final Layout layout;
+    private final Object[] slots;
+    private Map<Symbol, Cell> map;
 
     public Scope(Scope parent) {
+        this(parent, null, null);
+    }
+
+    Scope(Scope parent, Layout layout, Object[] slots) {
         this.parent = parent;
+        this.layout = layout;
+        this.slots = slots;
     }
 
     public Scope getParent() {
@@ -17,31 +33,103 @@ public final class Scope {
     }
 
     public void define(String name, Object value) {
-        if (map.containsKey(name)) {
-            throw new EvalException("The identifier " + name + " is already defined in this scope.");
-        } else {
-            map.put(name, value);
-        }
+        define(Symbol.of(name), value);
     }
 
     public void set(String name, Object value) throws EvalException {
-        if (map.containsKey(name)) {
-            map.put(name, value);
-        } else if (parent != null) {
-            parent.set(name, value);
-        } else {
-            throw new EvalException("The identifier " + name + " is not defined.");
-        }
+        set(Symbol.of(name), value);
     }
 
     public Object lookup(String name) throws EvalException {
-        if (map.containsKey(name)) {
-            return map.get(name);
-        } else if (parent != null) {
-            return parent.lookup(name);
+        return lookup(Symbol.of(name));
+    }
+
+    void define(Symbol symbol, Object value) {
+        int slot = slot(symbol);
+        if (slot >= 0 ? slots[slot] != null : map != null && map.containsKey(symbol)) {
+            throw new EvalException("The identifier " + symbol + " is already defined in this scope.");
+        } else if (slot >= 0) {
+            slots[slot] = value;
         } else {
-            throw new EvalException("The identifier " + name + " is not defined.");
+            if (map == null) {
+                map = new HashMap<>();
+            }
+            map.put(symbol, new Cell(value));
+        }
+        symbol.invalidate();
+    }
+
+    void set(Symbol symbol, Object value) throws EvalException {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            int slot = scope.slot(symbol);
+            if (slot >= 0 && scope.slots[slot] != null) {
+                scope.slots[slot] = value;
+                return;
+            }
+            Cell cell = scope.map != null ? scope.map.get(symbol) : null;
+            if (cell != null) {
+                cell.value = value;
+                return;
+            }
         }
+        throw new EvalException("The identifier " + symbol + " is not defined.");
+    }
+
+    Object lookup(Symbol symbol) throws EvalException {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            int slot = scope.slot(symbol);
+            if (slot >= 0 && scope.slots[slot] != null) {
+                return scope.slots[slot];
+            }
+            Cell cell = scope.map != null ? scope.map.get(symbol) : null;
+            if (cell != null) {
+                return cell.value;
+            }
+        }
+        throw new EvalException("The identifier " + symbol + " is not defined.");
+    }
+
+    /**
+     * Returns the cell of the binding a lookup of the symbol would find, or
+     * null if it isn't defined or is stored in a slot (which doesn't have a
+     * cell).
+     */
+    Cell cell(Symbol symbol) {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            int slot = scope.slot(symbol);
+            if (slot >= 0 && scope.slots[slot] != null) {
+                return null;
+            }
+            Cell cell = scope.map != null ? scope.map.get(symbol) : null;
+            if (cell != null) {
+                return cell;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the scope holding the variable at the given address, which is
+     * the frame of the function if the variable is free, or null if the scopes
+     * don't have the layout the resolver expected.
+     */
+    Scope resolve(Address address) {
+        Scope scope = this;
+        for (int i = 0; i < address.depth && scope != null; i++) {
+            scope = scope.parent;
+        }
+        return scope != null && scope.layout == address.layout ? scope : null;
+    }
+
+    /**
+     * Returns the value in the slot, or null if it hasn't been defined yet.
+     */
+    Object get(int slot) {
+        return slots[slot];
+    }
+
+    private int slot(Symbol symbol) {
+        return layout != null ? layout.indexOf(symbol) : -1;
     }
 
 }
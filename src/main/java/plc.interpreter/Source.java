@@ -0,0 +1,135 @@
+package plc.interpreter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Loads program text for the {@link Lexer} as a {@link CharSequence}, so large
+ * scripts don't need to be copied into a {@link String} first.
+ *
+ * Files are memory-mapped with {@link FileChannel#map}. If the file is entirely
+ * ASCII (which is the common case, as Whisp syntax is ASCII), the mapped bytes
+ * are used directly as characters without decoding. Otherwise the file is
+ * decoded as UTF-8.
+ */
+public final class Source {
+
+    private Source() {}
+
+    /**
+     * Memory-maps the file at the given path.
+     */
+    public static CharSequence map(Path path) throws IOException {
+        ByteBuffer bytes;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (isAscii(bytes)) {
+            return new AsciiSequence(bytes);
+        }
+        return StandardCharsets.UTF_8.newDecoder().decode(bytes);
+    }
+
+    /**
+     * Reads the remainder of the given reader, without closing it.
+     */
+    public static CharSequence read(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, read);
+        }
+        return builder;
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of the characters of the source, which
+     * is used to identify sources by their content.
+     */
+    public static long hash(CharSequence source) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < source.length(); i++) {
+            hash = (hash ^ source.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns true if every byte in the buffer is ASCII, checking eight bytes
+     * at a time where possible.
+     */
+    private static boolean isAscii(ByteBuffer bytes) {
+        int limit = bytes.limit();
+        int i = 0;
+        for (; i + 8 <= limit; i += 8) {
+            if ((bytes.getLong(i) & 0x8080808080808080L) != 0) {
+                return false;
+            }
+        }
+        for (; i < limit; i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A view of ASCII bytes as characters. Sub-sequences share the underlying
+     * buffer.
+     */
+    static final class AsciiSequence implements CharSequence {
+
+        private final ByteBuffer bytes;
+        private final int offset;
+        private final int length;
+
+        AsciiSequence(ByteBuffer bytes) {
+            this(bytes, 0, bytes.limit());
+        }
+
+        private AsciiSequence(ByteBuffer bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length + ".");
+            }
+            return (char) bytes.get(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length + ".");
+            }
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            byte[] copy = new byte[length];
+            ByteBuffer view = bytes.duplicate();
+            view.position(offset);
+            view.get(copy);
+            return new String(copy, StandardCharsets.US_ASCII);
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+package plc.interpreter;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interned name, created for each identifier and term by the parser, so
+ * that scopes can be keyed by symbol (which compares by identity and doesn't
+ * need the name to be hashed) rather than by string.
+ *
+ * Each symbol also has a version, which is incremented whenever a new binding
+ * of the symbol is defined in any scope. Call sites that cache the {@link
+ * Cell} of a binding record the version, and are invalidated by definitions
+ * which might shadow it. Symbols are created by the parser before any
+ * interpreter sees them, so the table and the versions are shared by every
+ * interpreter: a definition in one also invalidates the call sites of the
+ * same name in the others, which costs them a lookup but never a wrong
+ * result (their caches are also guarded by their own scopes).
+ *
+ * The table only holds symbols weakly, so the symbols of generated names are
+ * collected once no AST or scope refers to them. A symbol is only dropped
+ * when nothing can compare against it anymore, so a name always has a single
+ * symbol as far as anyone can tell.
+ */
+public final class Symbol {
+
+    private static final ConcurrentHashMap<String, Entry> SYMBOLS = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> COLLECTED = new ReferenceQueue<>();
+
+    private final String name;
+    private volatile int version;
+
+    private Symbol(String name) {
+        this.name = name;
+    }
+
+    public static Symbol of(String name) {
+        while (true) {
+            Entry entry = SYMBOLS.get(name);
+            Symbol symbol = entry != null ? entry.get() : null;
+            if (symbol != null) {
+                return symbol;
+            }
+            expunge();
+            symbol = new Symbol(name);
+            Entry created = new Entry(symbol);
+            if (entry == null ? SYMBOLS.putIfAbsent(name, created) == null : SYMBOLS.replace(name, entry, created)) {
+                return symbol;
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of symbols that have been collected.
+     */
+    private static void expunge() {
+        for (Object entry = COLLECTED.poll(); entry != null; entry = COLLECTED.poll()) {
+            SYMBOLS.remove(((Entry) entry).name, entry);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    synchronized void invalidate() {
+        version++;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Entry extends WeakReference<Symbol> {
+
+        private final String name;
+
+        private Entry(Symbol symbol) {
+            super(symbol, COLLECTED);
+            this.name = symbol.name;
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+package plc.interpreter;
+
+/**
+ * A call of a function created by {@code define} in tail position (the body of
+ * a function, or the last form of a {@code do} in tail position), which is
+ * returned by the function body rather than made. The call that started the
+ * body then makes it with {@link #run()}, after the frame of the function that
+ * returned it is gone, so tail-recursive functions run in constant stack.
+ *
+ * A tail call returned through a {@code do} is marked as wrapped, since the
+ * {@code do} would have converted any exception thrown by the call to an
+ * {@link EvalException}.
+ */
+final class TailCall {
+
+    private final Lambda function;
+    private final Object[] values;
+    private boolean wraps;
+
+    TailCall(Lambda function, Object[] values, boolean wraps) {
+        this.function = function;
+        this.values = values;
+        this.wraps = wraps;
+    }
+
+    void wrap() {
+        wraps = true;
+    }
+
+    /**
+     * Makes the call, and each tail call returned by it in turn, returning
+     * the result of the last one.
+     */
+    Object run() {
+        TailCall call = this;
+        boolean wraps = false;
+        try {
+            while (true) {
+                wraps |= call.wraps;
+                Object result = call.function.enter(call.values);
+                if (!(result instanceof TailCall)) {
+                    return result;
+                }
+                call = (TailCall) result;
+            }
+        } catch (RuntimeException e) {
+            if (!wraps) {
+                throw e;
+            }
+            throw new EvalException(e.getMessage());
+        }
+    }
+
+}
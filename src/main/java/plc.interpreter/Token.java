@@ -10,13 +10,29 @@ public final class Token {
     }
 
     private final Type type;
-    private final String literal;
+    private final CharSequence source;
     private final int index;
+    private final int length;
+    private String literal;
 
     public Token(Type type, String literal, int index) {
         this.type = type;
+        this.source = null;
+        this.index = index;
+        this.length = literal.length();
         this.literal = literal;
+    }
+
+    /**
+     * Creates a token spanning {@code length} characters of the source from
+     * {@code index}. The literal is only sliced out of the source once it is
+     * requested by {@link #getLiteral()}.
+     */
+    Token(Type type, CharSequence source, int index, int length) {
+        this.type = type;
+        this.source = source;
         this.index = index;
+        this.length = length;
     }
 
     public Type getType() {
@@ -24,6 +40,9 @@ public final class Token {
     }
 
     public String getLiteral() {
+        if (literal == null) {
+            literal = source.subSequence(index, index + length).toString();
+        }
         return literal;
     }
 
@@ -31,16 +50,34 @@ public final class Token {
         return index;
     }
 
+    /**
+     * Returns true if the literal equals the given string, comparing against
+     * the source in place if the literal hasn't been sliced out yet.
+     */
+    boolean literalEquals(String other) {
+        if (literal != null) {
+            return literal.equals(other);
+        } else if (other.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (source.charAt(index + i) != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Token && type == ((Token) obj).type
-                && literal.equals(((Token) obj).literal)
+                && getLiteral().equals(((Token) obj).getLiteral())
                 && index == ((Token) obj).index;
     }
 
     @Override
     public String toString() {
-        return type + "=`" + literal + "`@" + index;
+        return type + "=`" + getLiteral() + "`@" + index;
     }
 
 }
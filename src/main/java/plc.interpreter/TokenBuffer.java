@@ -0,0 +1,162 @@
+package plc.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact queue of tokens stored as parallel arrays of type ordinals, start
+ * indices and lengths instead of one {@link Token} object per token. Literals
+ * are compared against the source in place, and {@link Token}s are only
+ * created when requested through {@link #get(int)}.
+ *
+ * Tokens are addressed relative to the first token in the buffer, and the
+ * arrays are used as a ring so that {@link #removeFirst()} frees space for the
+ * lexer to reuse. When nothing is removed, the buffer simply holds every token
+ * of the input.
+ */
+final class TokenBuffer {
+
+    private static final Token.Type[] TYPES = Token.Type.values();
+
+    private final CharSequence source;
+    private byte[] types = new byte[16];
+    private int[] starts = new int[16];
+    private int[] lengths = new int[16];
+    private int first = 0;
+    private int size = 0;
+
+    TokenBuffer(CharSequence source) {
+        this.source = source;
+    }
+
+    /**
+     * Lexes the entire input into a new buffer.
+     */
+    static TokenBuffer lex(CharSequence input) throws ParseException {
+        TokenBuffer tokens = new TokenBuffer(input);
+        Lexer lexer = new Lexer(input);
+        while (lexer.lexInto(tokens)) {}
+        return tokens;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Appends a token spanning {@code length} characters of the source from
+     * {@code index}.
+     */
+    void add(Token.Type type, int index, int length) {
+        if (size == types.length) {
+            grow();
+        }
+        int slot = slot(size);
+        types[slot] = (byte) type.ordinal();
+        starts[slot] = index;
+        lengths[slot] = length;
+        size++;
+    }
+
+    /**
+     * Removes the first token from the buffer.
+     */
+    void removeFirst() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("The token buffer is empty.");
+        }
+        first = slot(1);
+        size--;
+    }
+
+    Token.Type getType(int i) {
+        return TYPES[types[checked(i)]];
+    }
+
+    int getIndex(int i) {
+        return starts[checked(i)];
+    }
+
+    int getLength(int i) {
+        return lengths[checked(i)];
+    }
+
+    /**
+     * Returns true if the literal of the i-th token equals the given string,
+     * without slicing it out of the source.
+     */
+    boolean literalEquals(int i, String literal) {
+        int slot = checked(i);
+        int length = lengths[slot];
+        if (literal.length() != length) {
+            return false;
+        }
+        int start = starts[slot];
+        for (int j = 0; j < length; j++) {
+            if (source.charAt(start + j) != literal.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String getLiteral(int i) {
+        int slot = checked(i);
+        return source.subSequence(starts[slot], starts[slot] + lengths[slot]).toString();
+    }
+
+    /**
+     * Returns the decoded value of the i-th token, which must be a {@link
+     * Token.Type#STRING}. See {@link Lexer#decodeString}.
+     */
+    String getString(int i) {
+        int slot = checked(i);
+        return Lexer.decodeString(source, starts[slot], starts[slot] + lengths[slot]);
+    }
+
+    /**
+     * Creates a {@link Token} for the i-th token, such as for tests or error
+     * reporting.
+     */
+    Token get(int i) {
+        int slot = checked(i);
+        return new Token(TYPES[types[slot]], source, starts[slot], lengths[slot]);
+    }
+
+    List<Token> toList() {
+        List<Token> tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(get(i));
+        }
+        return tokens;
+    }
+
+    private int checked(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Token " + i + " out of bounds for size " + size + ".");
+        }
+        return slot(i);
+    }
+
+    private int slot(int i) {
+        return (first + i) & (types.length - 1);
+    }
+
+    private void grow() {
+        int capacity = types.length * 2;
+        byte[] types = new byte[capacity];
+        int[] starts = new int[capacity];
+        int[] lengths = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            types[i] = this.types[slot];
+            starts[i] = this.starts[slot];
+            lengths[i] = this.lengths[slot];
+        }
+        this.types = types;
+        this.starts = starts;
+        this.lengths = lengths;
+        first = 0;
+    }
+
+}
@@ -0,0 +1,53 @@
+package plc.interpreter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Compares the default (exact) numbers with fast-math mode on numeric
+ * workloads, for each engine. Every workload is run a few times to warm up
+ * before it's timed, and it's result is printed so that the two modes can be
+ * compared as well. This isn't a test, so it is run by hand through it's main
+ * method.
+ */
+final class Benchmark {
+
+    private static final String[][] WORKLOADS = {
+            {"Sum of squares", "(define (sum n) (do (define total 0) (for (i (range 0 n)) (set! total (+ total (* i i)))) total))", "(sum 20000)"},
+            {"Newton", "(define (newton x) (do (define guess 1) (define i 0) (while (< i 2000) (set! guess (/ (+ guess (/ x guess)) 2)) (set! i (+ i 1))) guess))", "(newton 2.0)"},
+            {"Harmonic", "(define (harmonic n) (do (define total 0) (define i 1) (while (<= i n) (set! total (+ total (/ 1.0 i))) (set! i (+ i 1))) total))", "(harmonic 5000)"},
+    };
+
+    private static final int WARMUP = 20, RUNS = 20;
+
+    private Benchmark() {}
+
+    public static void main(String[] args) {
+        for (String[] workload : WORKLOADS) {
+            System.out.println(workload[0] + ": " + workload[2]);
+            for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+                for (boolean fastMath : new boolean[] {false, true}) {
+                    Interpreter interpreter = new Interpreter(new PrintWriter(new StringWriter()), new Scope(null), engine, fastMath);
+                    interpreter.setCompileThreshold(0);
+                    interpreter.run(workload[1]);
+                    Object result = null;
+                    for (int i = 0; i < WARMUP; i++) {
+                        result = interpreter.run(workload[2]);
+                    }
+                    long start = System.nanoTime();
+                    for (int i = 0; i < RUNS; i++) {
+                        interpreter.run(workload[2]);
+                    }
+                    long micros = (System.nanoTime() - start) / RUNS / 1000;
+                    System.out.printf("  %-9s %-7s %8d us  %s%n", engine, fastMath ? "fast" : "exact", micros, abbreviate(result));
+                }
+            }
+        }
+    }
+
+    private static String abbreviate(Object result) {
+        String string = String.valueOf(result);
+        return string.length() > 24 ? string.substring(0, 24) + "..." : string;
+    }
+
+}
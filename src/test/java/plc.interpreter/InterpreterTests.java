@@ -10,11 +10,18 @@ import sun.awt.image.ImageWatched;
 import sun.nio.cs.ext.Big5_HKSCS;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 final class InterpreterTests {
@@ -92,7 +99,15 @@ final class InterpreterTests {
                             new Ast.NumberLiteral(new BigDecimal("1.000")),
                         new Ast.NumberLiteral(BigDecimal.valueOf(2)),
                         new Ast.NumberLiteral(BigDecimal.valueOf(3))
-                )), BigDecimal.valueOf(0.167))
+                )), BigDecimal.valueOf(0.167)),
+                Arguments.of("Half Even Down", new Ast.Term("/", Arrays.asList(
+                        new Ast.NumberLiteral(BigDecimal.valueOf(5)),
+                        new Ast.NumberLiteral(BigDecimal.valueOf(2))
+                )), BigDecimal.valueOf(2)),
+                Arguments.of("Half Even Up", new Ast.Term("/", Arrays.asList(
+                        new Ast.NumberLiteral(BigDecimal.valueOf(-7)),
+                        new Ast.NumberLiteral(BigDecimal.valueOf(2))
+                )), BigDecimal.valueOf(-4))
         );
     }
 
@@ -459,6 +474,512 @@ final class InterpreterTests {
         );
     }
 
+    @Test
+    void testRun() {
+        StringWriter writer = new StringWriter();
+        Interpreter interpreter = new Interpreter(new PrintWriter(writer, true), new Scope(null));
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(BigDecimal.valueOf(3), interpreter.run("(define x 1) (print x) (+ x 2)")),
+                () -> Assertions.assertEquals(Interpreter.VOID, interpreter.run("")),
+                () -> Assertions.assertEquals(BigDecimal.valueOf(4), interpreter.run(AstArena.parse("(+ x 3)"))),
+                () -> Assertions.assertThrows(ParseException.class, () -> interpreter.run("(print \"before\") (print x]")),
+                () -> Assertions.assertEquals("1" + System.lineSeparator() + "before" + System.lineSeparator(), writer.toString())
+        );
+    }
+
+    @Test
+    void testArena() {
+        String input = "(define (f x) (* x 2)) (define y (f 4)) (print \"y\" y) (print (and (< 1 2) (> y 0))) (list (+ y 1.5) (f y) (do (define z 3) (- z y)))";
+        AstArena arena = AstArena.parse(input);
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            StringWriter expected = new StringWriter(), actual = new StringWriter();
+            Object result = new Interpreter(new PrintWriter(expected, true), new Scope(null), engine).run(input);
+            Interpreter interpreter = new Interpreter(new PrintWriter(actual, true), new Scope(null), engine);
+            Assertions.assertEquals(result, interpreter.run(arena), engine.name());
+            Assertions.assertEquals(expected.toString(), actual.toString(), engine.name());
+            Assertions.assertEquals("The identifier w is not defined.", Assertions.assertThrows(EvalException.class, () -> interpreter.run(AstArena.parse("(+ 1 w)"))).getMessage());
+            Assertions.assertThrows(EvalException.class, () -> interpreter.run(AstArena.parse("(list 1 (/ 1 0))")));
+        }
+        Interpreter fast = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.TREE, true);
+        Assertions.assertEquals(2.5, fast.run(AstArena.parse("(+ 1 1.5)")));
+    }
+
+    @Test
+    void testResolver() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null));
+        Ast.Term source = (Ast.Term) Parser.parse("(define y 10) (define (f x) (do (define z 2) (+ x y z)))");
+        source.getArgs().forEach(interpreter::eval);
+        Ast.Term body = (Ast.Term) ((Ast.Term) source.getArgs().get(1)).getArgs().get(1);
+        List<Ast> args = ((Ast.Term) body.getArgs().get(1)).getArgs();
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(BigDecimal.valueOf(13), interpreter.run("(f 1)")),
+                () -> Assertions.assertEquals(BigDecimal.valueOf(103), interpreter.run("(define (g y) (f y)) (g 91)")),
+                () -> Assertions.assertEquals(1, ((Ast.Identifier) args.get(0)).address.depth),
+                () -> Assertions.assertEquals(0, ((Ast.Identifier) args.get(0)).address.slot),
+                () -> Assertions.assertTrue(((Ast.Identifier) args.get(1)).address.isFree()),
+                () -> Assertions.assertEquals(0, ((Ast.Identifier) args.get(2)).address.depth),
+                () -> Assertions.assertSame(body.layout, ((Ast.Identifier) args.get(2)).address.layout),
+                () -> Assertions.assertThrows(EvalException.class, () -> interpreter.run("(f 1 2)"))
+        );
+    }
+
+    @Test
+    void testSharedAddresses() {
+        String body = "(do (define (g x) x) (while false (define z 1) x) (g 5))";
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Ast.Term source = (Ast.Term) new AstInterner().intern(Parser.parse("(define (f x) " + body + ") (f 1) (define (h x) " + body + ") (h 1) (f 1)"));
+            Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), engine);
+            interpreter.setCompileThreshold(0);
+            List<Object> results = source.getArgs().stream().map(interpreter::eval).collect(Collectors.toList());
+            Assertions.assertEquals(Arrays.asList(Interpreter.VOID, BigDecimal.valueOf(5), Interpreter.VOID, BigDecimal.valueOf(5), BigDecimal.valueOf(5)), results, engine.name());
+        }
+    }
+
+    @Test
+    void testFrames() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null));
+        interpreter.run("(define (fib n) (do (define a (- n 1)) (define b (- n 2)) (if-small n a b)))");
+        interpreter.run("(define (if-small n a b) (do (define result n) (while (> n 1) (set! result (+ (fib a) (fib b))) (set! n 0)) result))");
+        interpreter.run("(define (twice x) (while (< x 3) (define y x) (set! x (+ x 1))))");
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(BigDecimal.valueOf(55), interpreter.run("(fib 10)")),
+                () -> Assertions.assertEquals(BigDecimal.valueOf(3), interpreter.run("(define (sum n) (do (define total 0) (for (i (range 0 n)) (set! total (+ total i))) total)) (sum 3)")),
+                () -> Assertions.assertThrows(EvalException.class, () -> interpreter.run("(twice 1)")),
+                () -> Assertions.assertEquals(Interpreter.VOID, interpreter.run("(twice 2)"))
+        );
+    }
+
+    @Test
+    void testSymbols() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null));
+        Ast.Term call = (Ast.Term) ((Ast.Term) Parser.parse("(g)")).getArgs().get(0);
+        interpreter.run("(define (g) 1) (define (h) 2)");
+        Assertions.assertAll(
+                () -> Assertions.assertSame(Symbol.of("g"), call.getSymbol()),
+                () -> Assertions.assertEquals(BigDecimal.ONE, interpreter.eval(call)),
+                () -> Assertions.assertEquals(1, call.cache.getMisses()),
+                () -> {
+                    interpreter.run("(set! g h)");
+                    Assertions.assertEquals(BigDecimal.valueOf(2), interpreter.eval(call));
+                },
+                () -> Assertions.assertEquals(BigDecimal.ONE, interpreter.run("(do (define (call) (g)) (define before (call)) (define (g) 3) (- (call) before))"))
+        );
+    }
+
+    @Test
+    void testSymbolsCollected() throws InterruptedException {
+        Assertions.assertSame(Symbol.of("collected"), Symbol.of(new String("collected")));
+        WeakReference<Symbol> reference = new WeakReference<>(Symbol.of("generated" + System.nanoTime()));
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(reference.get());
+    }
+
+    @Test
+    void testInlineCache() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null));
+        Ast.Term source = (Ast.Term) Parser.parse("(define (f x) (+ x 1)) (define (g x) (- x 1)) (define (loop n) (while (> n 0) (set! n (f n)) (set! n (- n 2))))");
+        source.getArgs().forEach(interpreter::eval);
+        Ast.Term call = (Ast.Term) ((Ast.Term) Parser.parse("(f 1)")).getArgs().get(0);
+        Ast.Term body = (Ast.Term) ((Ast.Term) source.getArgs().get(2)).getArgs().get(1);
+        Ast.Term inner = (Ast.Term) ((Ast.Term) body.getArgs().get(1)).getArgs().get(1);
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(BigDecimal.valueOf(2), interpreter.eval(call)),
+                () -> Assertions.assertEquals(BigDecimal.valueOf(2), interpreter.eval(call)),
+                () -> Assertions.assertEquals(1, call.cache.getHits()),
+                () -> {
+                    interpreter.run("(set! f g)");
+                    Assertions.assertEquals(BigDecimal.ZERO, interpreter.eval(call));
+                    Assertions.assertEquals(2, call.cache.getMisses());
+                },
+                () -> {
+                    interpreter.run("(define (h x) x) (set! f h)");
+                    Assertions.assertEquals(BigDecimal.ONE, interpreter.eval(call));
+                },
+                () -> {
+                    interpreter.run("(loop 100)");
+                    Assertions.assertEquals(1, inner.cache.getMisses());
+                    Assertions.assertEquals(49, inner.cache.getHits());
+                }
+        );
+    }
+
+    @Test
+    void testInlineCacheScope() throws InterruptedException {
+        Function<List<Ast>, Object> function = args -> BigDecimal.ONE;
+        Scope global = new Scope(null);
+        global.define("f", function);
+        InlineCache cache = new InlineCache();
+        Scope block = new Scope(global);
+        cache.link(block, Symbol.of("f").getVersion(), global.cell(Symbol.of("f")), function);
+        Assertions.assertSame(function, cache.get(block, Symbol.of("f").getVersion()));
+        WeakReference<Scope> reference = new WeakReference<>(block);
+        block = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assertions.assertNull(reference.get());
+        Assertions.assertNull(cache.get(global, Symbol.of("f").getVersion()));
+    }
+
+    @Test
+    void testSharedInlineCache() throws InterruptedException {
+        Ast.Term call = (Ast.Term) ((Ast.Term) Parser.parse("(f)")).getArgs().get(0);
+        BigDecimal[] results = new BigDecimal[2];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null));
+                interpreter.run("(define (f) " + index + ")");
+                BigDecimal result = BigDecimal.ZERO;
+                for (int j = 0; j < 10000; j++) {
+                    result = result.add((BigDecimal) interpreter.eval(call));
+                }
+                results[index] = result;
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(BigDecimal.ZERO, results[0]);
+        Assertions.assertEquals(BigDecimal.valueOf(10000), results[1]);
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testEngines(String test, String input) {
+        StringWriter tree = new StringWriter();
+        Interpreter expected = new Interpreter(new PrintWriter(tree, true), new Scope(null), Interpreter.Engine.TREE);
+        Object result = evaluate(expected, input);
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            StringWriter writer = new StringWriter();
+            Interpreter actual = new Interpreter(new PrintWriter(writer, true), new Scope(null), engine);
+            actual.setCompileThreshold(0);
+            Assertions.assertEquals(result, evaluate(actual, input), engine.name());
+            Assertions.assertEquals(tree.toString(), writer.toString(), engine.name());
+        }
+    }
+
+    private static Stream<Arguments> testEngines() {
+        return Stream.of(
+                Arguments.of("Fibonacci", "(define (fib n) (do (define small (< n 2)) (define result n) (while (not small) (set! result (+ (fib (- n 1)) (fib (- n 2)))) (set! small true)) result)) (fib 15)"),
+                Arguments.of("Loop", "(define (sum n) (do (define total 0) (for (i (range 0 n)) (set! total (+ total i))) total)) (print (sum 100))"),
+                Arguments.of("Decimals", "(define (f x) (- (* x 3) 1)) (print (f 2)) (print (f 2.5)) (f 1000000000000)"),
+                Arguments.of("Overflow", "(* 4611686018427387904 4)"),
+                Arguments.of("Numeric Tower", "(list (+ 999999999999999999 999999999999999999) (* 4294967296 4294967296) (/ 7 2) (/ -5 2) (/ 7.0 2) (< 999999999999999999 1000000000000000000 1000000000000000000.5))"),
+                Arguments.of("Comparisons", "(list (< 1 2 3) (<= 1 1 2) (> 3 1.5) (>= 1 2) (and true (or false true)))"),
+                Arguments.of("Division", "(/ 10 4)"),
+                Arguments.of("Type Error", "(+ 1 \"x\")"),
+                Arguments.of("Unary", "(- 5)"),
+                Arguments.of("Empty Subtraction", "(-)"),
+                Arguments.of("Arity", "(define (f x) x) (f 1 2)"),
+                Arguments.of("Redefined", "(define (g x) (+ x 1)) (define (f) (g 1)) (f) (set! g -) (f)"),
+                Arguments.of("Redefined Form", "(define (f x) (do x)) (f 1) (set! do list) (f 1)"),
+                Arguments.of("Wrapped Exception", "(list (or false (do (/ 1 0))))"),
+                Arguments.of("Wrapped Argument", "(define (f x) (/ x 0)) (list 1 (f 1))"),
+                Arguments.of("Nested Form", "(define (f x) (not (equals? x (g x)))) (define (g x) (* x 2)) (list (f 0) (f 1))"),
+                Arguments.of("Short Circuit", "(define x 0) (list (and false (set! x 1)) (or true (set! x 2)) x)"),
+                Arguments.of("Redefined Local Form", "(define (f x) (do (define y 1) (set! not list) (not (set! y 7)) (list x y))) (f 5)"),
+                Arguments.of("Redefined Operator", "(define (f x y) (do (set! + -) (list (+ x y) (- x y)))) (f 3 1.5)"),
+                Arguments.of("Tail Call Exception", "(define (h) (/ 1 0)) (define (g) (h)) (define (f) (do (print 1) (g))) (f)")
+        );
+    }
+
+    private static Object evaluate(Interpreter interpreter, String input) {
+        try {
+            return interpreter.run(input);
+        } catch (EvalException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Test
+    void testBytecode() {
+        Ast ast = ((Ast.Term) Parser.parse("(while (< x 3) (set! x (+ x (* 2 1))))")).getArgs().get(0);
+        Assertions.assertEquals(String.join("\n",
+                "0000 GUARD      0 1 34 (while)",
+                "0004 ENTER      0 (while)",
+                "0006 INVOKE     2 3 (<)",
+                "0009 JUMP_FALSE 30",
+                "0011 GUARD      4 5 27 (set!)",
+                "0015 FUNCTION   6 25 (+)",
+                "0018 LOAD       7 (x)",
+                "0020 INVOKE     8 9 (*)",
+                "0023 CALL       2",
+                "0025 SET        10 (x)",
+                "0027 POP",
+                "0028 JUMP       6",
+                "0030 EXIT       0 (while)",
+                "0032 CONST      11 (VOID)",
+                "0034 RETURN",
+                ""), Interpreter.disassemble(ast));
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.BYTECODE);
+        interpreter.run("(define x 0)");
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(Interpreter.VOID, interpreter.eval(ast)),
+                () -> Assertions.assertEquals(BigDecimal.valueOf(4), interpreter.scope.lookup("x")),
+                () -> {
+                    interpreter.run("(define (down n) (do (define r 0) (while (> n 0) (set! r (+ 1 (down (- n 1)))) (set! n 0)) r))");
+                    Assertions.assertEquals(BigDecimal.valueOf(100000), interpreter.run("(down 100000)"));
+                }
+        );
+    }
+
+    @Test
+    void testClosures() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.CLOSURES);
+        Ast.Term define = (Ast.Term) ((Ast.Term) Parser.parse("(define (f x) (+ x 1))")).getArgs().get(0);
+        Ast body = define.getArgs().get(1);
+        interpreter.eval(define);
+        Assertions.assertNull(body.closure);
+        Assertions.assertEquals(BigDecimal.valueOf(2), interpreter.run("(f 1)"));
+        Closure closure = body.closure;
+        Assertions.assertAll(
+                () -> Assertions.assertNotNull(closure),
+                () -> Assertions.assertEquals(BigDecimal.valueOf(3), interpreter.run("(f 2)")),
+                () -> Assertions.assertSame(closure, body.closure),
+                () -> {
+                    Ast.Term source = (Ast.Term) new AstInterner().intern(Parser.parse("(define (g x) (- x 1)) (define (h y x) (- x 1)) (list (g 3) (h 0 5))"));
+                    source.getArgs().forEach(interpreter::eval);
+                    Layout g = ((Ast.Term) ((Ast.Term) source.getArgs().get(0)).getArgs().get(0)).layout;
+                    Layout h = ((Ast.Term) ((Ast.Term) source.getArgs().get(1)).getArgs().get(0)).layout;
+                    Assertions.assertEquals(Arrays.asList(BigDecimal.valueOf(2), BigDecimal.valueOf(4)), interpreter.eval(source.getArgs().get(2)));
+                    Assertions.assertNull(g.getSource().closure);
+                    Assertions.assertNotSame(g.getBody().closure, h.getBody().closure);
+                }
+        );
+    }
+
+    @Test
+    void testJvm() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.JVM);
+        interpreter.setCompileThreshold(2);
+        interpreter.run("(define (fib n) (do (define small (< n 2)) (define result n) (while (not small) (set! result (+ (fib (- n 1)) (fib (- n 2)))) (set! small true)) result))");
+        interpreter.run("(define (outer) (do (define (inner) 1) (inner)))");
+        Lambda fib = (Lambda) interpreter.scope.lookup("fib");
+        Lambda outer = (Lambda) interpreter.scope.lookup("outer");
+        Assertions.assertAll(
+                () -> {
+                    interpreter.run("(fib 0) (fib 1)");
+                    Assertions.assertFalse(fib.isCompiled());
+                    Assertions.assertEquals(BigDecimal.valueOf(610), interpreter.run("(fib 15)"));
+                    Assertions.assertTrue(fib.isCompiled());
+                    Assertions.assertEquals(BigDecimal.valueOf(6765), interpreter.run("(fib 20)"));
+                },
+                () -> {
+                    interpreter.run("(outer) (outer) (outer)");
+                    Assertions.assertEquals(BigDecimal.ONE, interpreter.run("(outer)"));
+                    Assertions.assertFalse(outer.isCompiled());
+                },
+                () -> {
+                    Interpreter walking = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.JVM);
+                    walking.setCompileThreshold(-1);
+                    walking.run("(define (f x) (+ x 1))");
+                    Assertions.assertEquals(BigDecimal.valueOf(3), walking.run("(f (f (f 0)))"));
+                    Assertions.assertFalse(((Lambda) walking.scope.lookup("f")).isCompiled());
+                }
+        );
+    }
+
+    @Test
+    void testTailCalls() {
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), engine);
+            interpreter.setCompileThreshold(0);
+            interpreter.run("(define (done n acc) acc)");
+            interpreter.run("(define (loop n acc) (do (define next loop) (define k n) (while (< k 1) (set! next done) (set! k 1)) (next (- n 1) (+ acc n))))");
+            Assertions.assertEquals(BigDecimal.valueOf(5000050000L), interpreter.run("(loop 100000 0)"), engine.name());
+        }
+    }
+
+    @Test
+    void testNumbers() {
+        List<BigDecimal> numbers = new ArrayList<>();
+        for (long value : new long[] {0, 1, -1, 2, -3, 7, 10, 999999999999999999L, -999999999999999999L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            numbers.add(BigDecimal.valueOf(value));
+        }
+        numbers.add(new BigDecimal("2.50"));
+        numbers.add(new BigDecimal("1E+3"));
+        numbers.add(new BigDecimal("123456789012345678901234567890"));
+        for (BigDecimal first : numbers) {
+            Assertions.assertEquals(BigDecimal.ZERO.add(first), Numbers.plus(first));
+            for (BigDecimal second : numbers) {
+                String pair = first + ", " + second;
+                Assertions.assertEquals(Integer.signum(first.compareTo(second)), Integer.signum(Numbers.compare(first, second)), pair);
+                if (second.signum() != 0) {
+                    Assertions.assertEquals(first.divide(second, RoundingMode.HALF_EVEN), Numbers.divide(first, second), pair);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCek() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.CEK);
+        interpreter.run("(define (down n) (do (define r 0) (while (> n 0) (set! r (+ 1 (down (- n 1)))) (set! n 0)) r))");
+        Scope global = interpreter.scope;
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(BigDecimal.valueOf(100000), interpreter.run("(down 100000)")),
+                () -> {
+                    interpreter.run("(define (fail n) (do (define r 0) (while (> n 0) (set! r (fail (- n 1))) (set! n 0)) (/ 1 0)))");
+                    EvalException e = Assertions.assertThrows(EvalException.class, () -> interpreter.run("(fail 1000)"));
+                    Assertions.assertEquals("/ by zero", e.getMessage());
+                    Assertions.assertSame(global, interpreter.scope);
+                },
+                () -> {
+                    Thread.currentThread().interrupt();
+                    EvalException e = Assertions.assertThrows(EvalException.class, () -> interpreter.run("(down 10)"));
+                    Assertions.assertEquals("Interrupted.", e.getMessage());
+                    Assertions.assertFalse(Thread.currentThread().isInterrupted());
+                    Assertions.assertSame(global, interpreter.scope);
+                }
+        );
+    }
+
+    @Test
+    void testWrappedArguments() {
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), engine);
+            interpreter.setCompileThreshold(0);
+            EvalException list = Assertions.assertThrows(EvalException.class, () -> interpreter.run("(list (/ 1 0))"));
+            Assertions.assertEquals("/ by zero", list.getMessage(), engine.name());
+            Assertions.assertThrows(EvalException.class, () -> interpreter.run("(range (/ 1 0) 2)"));
+        }
+    }
+
+    @Test
+    void testNullValues() {
+        String input = "(define (f) (none)) (define (g) nothing) (list (list (f)) (list (g)) (list (do (none))))";
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Scope scope = new Scope(null);
+            scope.define("nothing", null);
+            scope.define("none", (Function<List<Ast>, Object>) args -> null);
+            Interpreter interpreter = new Interpreter(new PrintWriter(System.out), scope, engine);
+            Assertions.assertEquals(null, interpreter.run("nothing"), engine.name());
+            Assertions.assertEquals(null, interpreter.run("(none)"), engine.name());
+            Assertions.assertEquals(Arrays.asList(Collections.singletonList(null), Collections.singletonList(null), Collections.singletonList(Interpreter.VOID)), interpreter.run(input), engine.name());
+        }
+    }
+
+    @Test
+    void testMaxDepth() {
+        for (Interpreter.Engine engine : new Interpreter.Engine[] {Interpreter.Engine.BYTECODE, Interpreter.Engine.CEK}) {
+            Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), engine);
+            interpreter.setMaxDepth(100);
+            interpreter.run("(define (f n) (do (define result 0) (while (> n 0) (set! result (+ 1 (f (- n 1)))) (set! n 0)) result))");
+            Assertions.assertEquals(BigDecimal.valueOf(50), interpreter.run("(f 50)"), engine.name());
+            EvalException e = Assertions.assertThrows(EvalException.class, () -> interpreter.run("(define (g x) (+ 1 (g x))) (g 1)"));
+            Assertions.assertEquals("Maximum call depth of 100 exceeded.", e.getMessage(), engine.name());
+        }
+    }
+
+    @Test
+    void testSpecialization() {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.NODES);
+        Node.Root root = Node.root(((Ast.Term) Parser.parse("(+ x 1)")).getArgs().get(0));
+        interpreter.run("(define x 1)");
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(BigDecimal.valueOf(2), root.execute(interpreter)),
+                () -> Assertions.assertTrue(root.getChild() instanceof Node.LongArithmetic),
+                () -> {
+                    interpreter.run("(set! x 1.5)");
+                    Assertions.assertEquals(new BigDecimal("2.5"), root.execute(interpreter));
+                    Assertions.assertTrue(root.getChild() instanceof Node.DecimalArithmetic);
+                },
+                () -> {
+                    interpreter.run("(set! x \"x\")");
+                    Assertions.assertThrows(EvalException.class, () -> root.execute(interpreter));
+                    Assertions.assertTrue(root.getChild() instanceof Node.BuiltinCall);
+                },
+                () -> {
+                    interpreter.run("(set! x 2) (set! + *)");
+                    Assertions.assertEquals(BigDecimal.valueOf(2), root.execute(interpreter));
+                },
+                () -> {
+                    interpreter.run("(define (add a b) (- a b)) (set! + add)");
+                    Assertions.assertEquals(BigDecimal.ONE, root.execute(interpreter));
+                    Assertions.assertTrue(root.getChild() instanceof Node.GenericCall);
+                }
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testFastMath(String test, String input, Object expected) {
+        Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.TREE, true);
+        Assertions.assertEquals(expected, evaluate(interpreter, input));
+    }
+
+    private static Stream<Arguments> testFastMath() {
+        return Stream.of(
+                Arguments.of("Literal", "1", 1.0),
+                Arguments.of("Addition", "(+ 1 2 0.5)", 3.5),
+                Arguments.of("Rounding", "(+ 0.1 0.2)", 0.1 + 0.2),
+                Arguments.of("Division", "(/ 7 2)", 3.5),
+                Arguments.of("Division By Zero", "(/ 1 0)", Double.POSITIVE_INFINITY),
+                Arguments.of("Comparison", "(< 1 2 2.5)", true),
+                Arguments.of("NaN", "(list (< (/ 0 0) 1) (equals? (/ 0 0) (/ 0 0)))", Arrays.asList(false, true)),
+                Arguments.of("Math", "(list (sqrt 16) (pow 2 10) (floor -1.5) (log (exp 0)))", Arrays.asList(4.0, 1024.0, -2.0, 0.0)),
+                Arguments.of("Range", "(range 0 3)", Arrays.asList(0.0, 1.0, 2.0)),
+                Arguments.of("Arity", "(sqrt)", "Expected 1 argument for sqrt, received 0."),
+                Arguments.of("Type Error", "(+ 1 \"x\")", "Expected x to have type Number.")
+        );
+    }
+
+    @Test
+    void testFastMathEngines() {
+        String input = "(define (newton x) (do (define guess 1) (for (i (range 0 20)) (set! guess (/ (+ guess (/ x guess)) 2))) guess)) "
+                + "(define (sum n) (do (define total 0) (for (i (range 0 n)) (set! total (+ total (* i i) (- y)))) total)) "
+                + "(define flag 0) (while (and (< y (sum 3)) (>= 1 y) (< flag 1)) (set! flag (+ flag 1))) "
+                + "(list (newton 2) (sum 100) (* y 3) (pow (sqrt 2) 2) flag)";
+        Object expected = null;
+        for (Interpreter.Engine engine : Interpreter.Engine.values()) {
+            Scope scope = new Scope(null);
+            scope.define("y", new BigDecimal("0.5"));
+            Interpreter interpreter = new Interpreter(new PrintWriter(System.out), scope, engine, true);
+            interpreter.setCompileThreshold(0);
+            Object result = evaluate(interpreter, input);
+            if (expected == null) {
+                expected = result;
+                Assertions.assertEquals(Arrays.asList(1.414213562373095, 328300.0, 1.5, 2.0000000000000004, 1.0), result);
+            }
+            Assertions.assertEquals(expected, result, engine.name());
+        }
+        Interpreter exact = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.TREE);
+        Assertions.assertEquals("The identifier sqrt is not defined.", evaluate(exact, "(sqrt 4)"));
+    }
+
+    @Test
+    void testSharedNodes() throws InterruptedException {
+        Ast.Term source = (Ast.Term) Parser.parse("(define (f) (+ x 1)) (define (sum n) (do (define total 0) (for (i (range 0 n)) (set! total (+ total (f)))) total)) (sum 1000)");
+        String[] values = {"1", "1.5"};
+        Object[] results = new Object[values.length];
+        Thread[] threads = new Thread[values.length];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                Interpreter interpreter = new Interpreter(new PrintWriter(System.out), new Scope(null), Interpreter.Engine.NODES);
+                interpreter.run("(define x " + values[index] + ")");
+                interpreter.eval(source.getArgs().get(0));
+                interpreter.eval(source.getArgs().get(1));
+                for (int j = 0; j < 20; j++) {
+                    results[index] = interpreter.eval(source.getArgs().get(2));
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(BigDecimal.valueOf(2000), results[0]);
+        Assertions.assertEquals(new BigDecimal("2500.0"), results[1]);
+    }
+
     private static void test(Ast ast, Object expected, Map<String, Object> map) {
         Scope scope = new Scope(null);
         map.forEach(scope::define);
@@ -282,6 +282,49 @@ final class LexerTests {
         Assertions.assertEquals(expected, Lexer.lex(input));
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testModes(String test, String input) {
+        List<Token> expected;
+        try {
+            expected = Lexer.lex(input, Lexer.Mode.REGEX);
+        } catch (ParseException e) {
+            Assertions.assertThrows(ParseException.class, () -> Lexer.lex(input, Lexer.Mode.TABLE));
+            return;
+        }
+        Assertions.assertEquals(expected, Lexer.lex(input, Lexer.Mode.TABLE));
+    }
+
+    private static Stream<Arguments> testModes() {
+        return Stream.of(
+                Arguments.of("Term", "(let [x 10] (assert-equals? x 10))"),
+                Arguments.of("Numbers", "(+ 1 -2.0 007.000 1.2.3 1. )"),
+                Arguments.of("Periods", "(f . g) .. .x @.#"),
+                Arguments.of("Strings", "(print \"Hello,\\nWorld\" \"\\\"\")"),
+                Arguments.of("Whitespace", "one " + (char) 0x0B + " \b \n\f two"),
+                Arguments.of("Invalid Escape", "\"invalid\\escape\""),
+                Arguments.of("Unterminated", "\"unterminated"),
+                Arguments.of("Invalid Character", "(print $)")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("plc.interpreter.LexerTests#testModes")
+    void testTokenBuffer(String test, String input) {
+        List<Token> expected;
+        try {
+            expected = Lexer.lex(input);
+        } catch (ParseException e) {
+            Assertions.assertThrows(ParseException.class, () -> TokenBuffer.lex(input));
+            return;
+        }
+        TokenBuffer tokens = TokenBuffer.lex(input);
+        Assertions.assertEquals(expected, tokens.toList());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertTrue(tokens.literalEquals(i, expected.get(i).getLiteral()));
+        }
+    }
+
     @ParameterizedTest
     @MethodSource("plc.interpreter.LexerTests#testPeekAndMatch")
     void testPeek(String test, String input, String[] patterns, boolean matches) {
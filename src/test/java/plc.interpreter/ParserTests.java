@@ -6,7 +6,13 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Stream;
@@ -130,8 +136,11 @@ final class ParserTests {
                 Arguments.of("Escape", "(print \"new\\rline\")", Arrays.asList(
                         new Ast.Term("print", Arrays.asList(new Ast.StringLiteral("new\rline")))
                 )),
+                Arguments.of("Escaped Quote", "(print \"a\\\"b\")", Arrays.asList(
+                        new Ast.Term("print", Arrays.asList(new Ast.StringLiteral("a\"b")))
+                )),
                 Arguments.of("Escape", "(print \"\\b\\n\\r\\t\\\'\\\"\\\\\")", Arrays.asList(
-                        new Ast.Term("print", Arrays.asList(new Ast.StringLiteral("\\\"␈␊␍␉\\'\\\"\\\\\\\"")))
+                        new Ast.Term("print", Arrays.asList(new Ast.StringLiteral("\b\n\r\t\'\"\\")))
                 ))
         );
     }
@@ -151,6 +160,32 @@ final class ParserTests {
         test("(", null);
     }
 
+    @Test
+    void testDeeplyNested() {
+        int depth = 100000;
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            input.append("(+ 1 ");
+        }
+        for (int i = 0; i < depth; i++) {
+            input.append(")");
+        }
+        Ast ast = ((Ast.Term) Parser.parse(input)).getArgs().get(0);
+        int nested = 0;
+        while (ast instanceof Ast.Term) {
+            List<Ast> args = ((Ast.Term) ast).getArgs();
+            ast = args.size() == 2 ? args.get(1) : null;
+            nested++;
+        }
+        Assertions.assertEquals(depth, nested);
+    }
+
+    @Test
+    void testLexerErrorIndex() {
+        ParseException e = Assertions.assertThrows(ParseException.class, () -> Parser.parse("(print x) (print \"unterminated"));
+        Assertions.assertEquals(30, e.getIndex());
+    }
+
     @Test
     void testNoIdentifier() {
         test("(55)", null);
@@ -190,6 +225,187 @@ final class ParserTests {
         test(input, Arrays.asList(expected));
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testSources(String test, String input) throws IOException {
+        Ast expected = Parser.parse(input);
+        Path path = Files.createTempFile("source", ".whisp");
+        try {
+            Files.write(path, input.getBytes(StandardCharsets.UTF_8));
+            Assertions.assertAll(
+                    () -> Assertions.assertEquals(expected, Parser.parse(new StringReader(input))),
+                    () -> Assertions.assertEquals(expected, Parser.parse(path))
+            );
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    static Stream<Arguments> testSources() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("ASCII", "(print \"Hello, World!\")\n(+ 1 -2.0)"),
+                Arguments.of("UTF-8", "(print \"h\u00e9llo \u2603\")")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testParallel(String test, String input) {
+        Ast expected;
+        try {
+            expected = Parser.parse(input);
+        } catch (ParseException e) {
+            ParseException actual = Assertions.assertThrows(ParseException.class, () -> Parser.parseParallel(input));
+            Assertions.assertEquals(e.getIndex(), actual.getIndex());
+            return;
+        }
+        Assertions.assertEquals(expected, Parser.parseParallel(input));
+    }
+
+    static Stream<Arguments> testParallel() {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            large.append("(define (f").append(i).append(" x) [+ x \"(\\\")\" ").append(i).append("]) y").append(i).append("\n");
+        }
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Atoms", "x 1 \"(\" (print x) y"),
+                Arguments.of("Large", large.toString()),
+                Arguments.of("Large Error", large + "(print x]" + large),
+                Arguments.of("Unbalanced", large + "(print x" + large),
+                Arguments.of("Unterminated", large + "(print \"x)")
+        );
+    }
+
+    @Test
+    void testIncremental() {
+        IncrementalParser parser = new IncrementalParser("(print x)\n(print \"y\")\n(print z)");
+        List<Ast> before = ((Ast.Term) parser.parse()).getArgs();
+        List<Ast> after = ((Ast.Term) parser.edit(17, 3, "(f y)")).getArgs();
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(Parser.parse(parser.getSource()), new Ast.Term("source", after)),
+                () -> Assertions.assertSame(before.get(0), after.get(0)),
+                () -> Assertions.assertSame(before.get(2), after.get(2))
+        );
+    }
+
+    @Test
+    void testIncrementalError() {
+        IncrementalParser parser = new IncrementalParser("(print x) (print y)");
+        parser.parse();
+        ParseException e = Assertions.assertThrows(ParseException.class, () -> parser.edit(18, 1, "]"));
+        Assertions.assertEquals(Assertions.assertThrows(ParseException.class, () -> Parser.parse(parser.getSource())).getIndex(), e.getIndex());
+        Assertions.assertEquals(Parser.parse("(print x) (print y)"), parser.edit(18, 1, ")"));
+    }
+
+    @Test
+    void testParseCache() {
+        ParseCache cache = new ParseCache(2, 1000);
+        Ast first = cache.parse("(print x)");
+        Assertions.assertSame(first, cache.parse(new StringBuilder("(print x)")));
+        cache.parse("(print y)");
+        cache.parse("(print z)");
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(Parser.parse("(print x)"), first),
+                () -> Assertions.assertEquals(1, cache.getHits()),
+                () -> Assertions.assertEquals(3, cache.getMisses()),
+                () -> Assertions.assertEquals(1, cache.getEvictions()),
+                () -> Assertions.assertEquals(2, cache.size()),
+                () -> Assertions.assertEquals(18, cache.getWeight()),
+                () -> Assertions.assertNotSame(first, cache.parse("(print x)"))
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testCompiledScript(String test, String input) {
+        Ast expected = Parser.parse(input);
+        ByteBuffer bytes = ByteBuffer.wrap(CompiledScript.encode(expected, Source.hash(input)));
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(expected, CompiledScript.decode(bytes.duplicate(), Source.hash(input))),
+                () -> Assertions.assertNull(CompiledScript.decode(bytes.duplicate(), Source.hash(input + " "))),
+                () -> {
+                    for (int length = 13; length < bytes.capacity(); length++) {
+                        ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), length));
+                        Assertions.assertThrows(IllegalStateException.class, () -> CompiledScript.decode(truncated, Source.hash(input)));
+                    }
+                }
+        );
+    }
+
+    static Stream<Arguments> testCompiledScript() {
+        return Stream.of(
+                Arguments.of("Empty", ""),
+                Arguments.of("Atoms", "x \"string\" 1.50 -2"),
+                Arguments.of("Terms", "(define (f x) (print \"h\u00e9llo\" x [g])) (f f)"),
+                Arguments.of("Precision", "(print 123456789123456789.123456789123456789 -98765432109876543210)")
+        );
+    }
+
+    @Test
+    void testCompiledScriptFile() throws IOException {
+        Path path = Files.createTempFile("script", ".whisp");
+        Path compiled = CompiledScript.compiledPath(path);
+        try {
+            Files.write(path, "(print x)".getBytes(StandardCharsets.UTF_8));
+            CompiledScript.compile(path);
+            Assertions.assertEquals(Parser.parse("(print x)"), CompiledScript.load(path));
+            Files.write(path, "(print y)".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertEquals(Parser.parse("(print y)"), CompiledScript.load(path));
+            CompiledScript.compile(path);
+            byte[] bytes = Files.readAllBytes(compiled);
+            Files.write(compiled, Arrays.copyOf(bytes, bytes.length - 2));
+            Assertions.assertEquals(Parser.parse("(print y)"), CompiledScript.load(path));
+            bytes[bytes.length - 2] = 42;
+            Files.write(compiled, bytes);
+            Assertions.assertEquals(Parser.parse("(print y)"), CompiledScript.load(path));
+        } finally {
+            Files.deleteIfExists(compiled);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testInterner() {
+        AstInterner interner = new AstInterner();
+        Ast parsed = Parser.parse("(print (+ x 1) [+ x 1] \"x\" x)");
+        List<Ast> args = ((Ast.Term) ((Ast.Term) interner.intern(parsed)).getArgs().get(0)).getArgs();
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(parsed, interner.intern(parsed)),
+                () -> Assertions.assertEquals(parsed.hashCode(), Parser.parse("(print (+ x 1) [+ x 1] \"x\" x)").hashCode()),
+                () -> Assertions.assertSame(interner.intern(parsed), interner.intern(Parser.parse("(print (+ x 1) [+ x 1] \"x\" x)"))),
+                () -> Assertions.assertSame(args.get(0), args.get(1)),
+                () -> Assertions.assertSame(args.get(3), ((Ast.Term) args.get(0)).getArgs().get(0)),
+                () -> Assertions.assertNotSame(args.get(2), args.get(3)),
+                () -> Assertions.assertSame(args.get(0), interner.term("+", Arrays.asList(new Ast.Identifier("x"), new Ast.NumberLiteral(BigDecimal.ONE))))
+        );
+    }
+
+    @Test
+    void testArena() {
+        String input = "(print (+ x 1.5) \"x\" 123456789012345678901234567890 [list])";
+        AstArena arena = AstArena.parse(input);
+        int print = arena.getArg(arena.getRoot(), 0);
+        int plus = arena.getArg(print, 0);
+        Assertions.assertAll(
+                () -> Assertions.assertEquals(Parser.parse(input), arena.materialize(arena.getRoot())),
+                () -> {
+                    AstArena copy = AstArena.of(Parser.parse(input));
+                    Assertions.assertEquals(Parser.parse(input), copy.materialize(copy.getRoot()));
+                },
+                () -> Assertions.assertEquals(AstArena.Kind.TERM, arena.getKind(print)),
+                () -> Assertions.assertEquals(4, arena.getArgCount(print)),
+                () -> Assertions.assertEquals("+", arena.getName(plus)),
+                () -> Assertions.assertEquals("x", arena.getName(arena.getArg(plus, 0))),
+                () -> Assertions.assertEquals(new BigDecimal("1.5"), arena.getNumber(arena.getArg(plus, 1))),
+                () -> Assertions.assertEquals("x", arena.getString(arena.getArg(print, 1))),
+                () -> Assertions.assertEquals(new BigDecimal("123456789012345678901234567890"), arena.getNumber(arena.getArg(print, 2))),
+                () -> Assertions.assertThrows(IllegalArgumentException.class, () -> arena.getNumber(print)),
+                () -> Assertions.assertThrows(IndexOutOfBoundsException.class, () -> arena.getArg(print, 4))
+        );
+    }
+
     void test(String input, List<Ast> expected) {
         if (expected != null) {
             Ast ast = new Ast.Term("source", expected);